@@ -0,0 +1,68 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single GET made with a client built for the call, as the operators originally did, against the same GET on one
+ * shared client whose connection pool is reused.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientReuseBenchmark {
+
+    private MockApiServer server;
+
+    private OpenShiftConfig config;
+
+    private OpenShiftClient shared;
+
+    @Setup
+    public void setup() {
+        Fixtures.quietLogging();
+
+        server = new MockApiServer();
+        server.expect().get().withPath("/api/v1/namespaces/benchmark/configmaps/app.cm")
+                .andReturn(200, Fixtures.configMap("benchmark", "app.cm", "app", Collections.emptyMap())).always();
+        config = (OpenShiftConfig) server.client().getConfiguration();
+        shared = new DefaultOpenShiftClient(config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        shared.close();
+        server.shutdown();
+    }
+
+    @Benchmark
+    public ConfigMap newClientPerCall() {
+        try (OpenShiftClient client = new DefaultOpenShiftClient(config)) {
+            return client.configMaps().inNamespace("benchmark").withName("app.cm").get();
+        }
+    }
+
+    @Benchmark
+    public ConfigMap sharedClient() {
+        return shared.configMaps().inNamespace("benchmark").withName("app.cm").get();
+    }
+}
@@ -0,0 +1,93 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.streamzi.ev.operator.EnvDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of working out and applying the Environment Variables of a ConfigMap to the containers of a pod, which is done
+ * for every reconcile. Covers a pod that has none of the variables yet, one that is already up to date and one where a
+ * single value has changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvDiffBenchmark {
+
+    public enum Start {
+        EMPTY,
+        CURRENT,
+        ONE_CHANGED
+    }
+
+    @Param({"10", "100", "1000", "10000"})
+    public int keys;
+
+    @Param({"1", "5", "20"})
+    public int containers;
+
+    @Param({"EMPTY", "CURRENT", "ONE_CHANGED"})
+    public Start start;
+
+    private ConfigMap configMap;
+
+    private List<Container> pod;
+
+    //Env of each container before the benchmark changes it
+    private List<List<EnvVar>> original;
+
+    @Setup
+    public void setup() {
+        Fixtures.quietLogging();
+
+        configMap = Fixtures.configMap("benchmark", "app.cm", "app", Fixtures.data(keys, 1));
+
+        final List<EnvVar> env;
+        switch (start) {
+            case EMPTY:
+                env = Collections.emptyList();
+                break;
+            case ONE_CHANGED:
+                env = Fixtures.env(Fixtures.data(keys, 1));
+                env.set(keys / 2, new EnvVar(env.get(keys / 2).getName(), "changed", null));
+                break;
+            default:
+                env = Fixtures.env(Fixtures.data(keys, 1));
+        }
+        pod = Fixtures.containers(containers, env);
+
+        original = new ArrayList<>(containers);
+        for (Container container : pod) {
+            original.add(container.getEnv());
+        }
+    }
+
+    @Benchmark
+    public boolean diffAndApply() {
+        //apply replaces the env list rather than changing it, so putting the original lists back resets the pod
+        for (int i = 0; i < containers; i++) {
+            pod.get(i).setEnv(original.get(i));
+        }
+        return EnvDiff.of(configMap).apply(pod);
+    }
+}
@@ -0,0 +1,121 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.operator.ConfigMapOperator;
+import io.streamzi.ev.operator.DeploymentConfigOperator;
+import io.streamzi.ev.operator.DeploymentOperator;
+import io.streamzi.ev.operator.TargetResolver;
+import io.streamzi.ev.operator.Util;
+import io.streamzi.ev.operator.WorkloadWriter;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.WorkQueue;
+import io.streamzi.ev.watcher.ConfigMapWatcher;
+import io.streamzi.ev.watcher.WatchScope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ConfigMap event from the watch to the PATCH of the Deployment it targets, through the cache, WorkQueue, operators
+ * and writer wired together as the Manager does, with a mock API server in place of a cluster.
+ * <p>
+ * Each invocation alternates between two versions of the ConfigMap so that every event needs a write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventReceivedBenchmark {
+
+    private static final String NAMESPACE = "benchmark";
+
+    private static final String TARGET = "app";
+
+    @Param({"10", "1000", "10000"})
+    public int keys;
+
+    @Param({"1", "20"})
+    public int containers;
+
+    private MockApiServer server;
+
+    private WorkQueue queue;
+
+    private ConfigMapWatcher watcher;
+
+    private ConfigMap[] versions;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        Fixtures.quietLogging();
+
+        final Deployment deployment = Fixtures.deployment(NAMESPACE, TARGET, containers, Collections.emptyList());
+
+        server = new MockApiServer();
+        server.expect().patch().withPath("/apis/extensions/v1beta1/namespaces/" + NAMESPACE + "/deployments/" + TARGET)
+                .andReturn(200, deployment).always();
+        final OpenShiftClient client = server.client();
+
+        final ResourceCache<ConfigMap> configMaps = new ResourceCache<>();
+        configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+        configMaps.addIndex(TargetResolver.SELECTOR_INDEX, TargetResolver::getSelectorKey);
+        final ResourceCache<DeploymentConfig> deploymentConfigs = new ResourceCache<>();
+        deploymentConfigs.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        final ResourceCache<Deployment> deployments = new ResourceCache<>();
+        deployments.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        deployments.replace(Collections.singletonList(deployment));
+
+        queue = new WorkQueue(1);
+        queue.start();
+
+        final WorkloadWriter writer = new WorkloadWriter(client, new WriteTracker(), WorkloadWriter.Mode.PATCH, 1);
+        final TargetResolver resolver = new TargetResolver(configMaps, deploymentConfigs, deployments);
+        final DeploymentConfigOperator dco = new DeploymentConfigOperator(resolver, writer);
+        final DeploymentOperator dop = new DeploymentOperator(resolver, writer);
+        final ConfigMapOperator cmo = new ConfigMapOperator(deploymentConfigs, deployments, resolver, writer, dco, dop);
+
+        watcher = new ConfigMapWatcher(client, cmo, "streamzi.io/kind=ev", configMaps, queue, new WatchScope(Collections.singletonList(NAMESPACE)));
+
+        versions = new ConfigMap[]{
+                Fixtures.configMap(NAMESPACE, TARGET + ".cm", TARGET, Fixtures.data(keys, 1)),
+                Fixtures.configMap(NAMESPACE, TARGET + ".cm", TARGET, Fixtures.data(keys, 2))
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        queue.stop(5, TimeUnit.SECONDS);
+        server.shutdown();
+    }
+
+    @Benchmark
+    public long eventToWrite() {
+        final long processed = queue.getProcessed();
+        watcher.eventReceived(Watcher.Action.MODIFIED, versions[next++ & 1]);
+        while (queue.getProcessed() == processed) {
+            Thread.yield();
+        }
+        return queue.getProcessed();
+    }
+}
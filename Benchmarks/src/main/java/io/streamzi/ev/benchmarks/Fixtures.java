@@ -0,0 +1,132 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.api.model.DeploymentConfigBuilder;
+import io.streamzi.ev.operator.Util;
+import okhttp3.mockwebserver.MockWebServer;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the ConfigMaps and workloads that the benchmarks and the load test work on
+ */
+public class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * The operator logs every Environment Variable it sets, and the mock API server every request, at info, which
+     * would swamp the results
+     */
+    public static void quietLogging() {
+        Configurator.setRootLevel(Level.WARN);
+        java.util.logging.Logger.getLogger(MockWebServer.class.getName()).setLevel(java.util.logging.Level.WARNING);
+    }
+
+    /**
+     * @param keys    Number of keys, named like Kafka client properties e.g. key.0.bootstrap.servers
+     * @param version Included in every value, so that changing it changes every key
+     * @return The data of a ConfigMap
+     */
+    public static Map<String, String> data(int keys, int version) {
+        final Map<String, String> data = new LinkedHashMap<>();
+        for (int i = 0; i < keys; i++) {
+            data.put("key." + i + ".bootstrap.servers", "my-cluster-kafka-" + i + ":9092/" + version);
+        }
+        return data;
+    }
+
+    /**
+     * @return A streamzi.io/kind=ev ConfigMap targeting a workload by name
+     */
+    public static ConfigMap configMap(String namespace, String name, String target, Map<String, String> data) {
+        return new ConfigMapBuilder()
+                .withNewMetadata()
+                .withNamespace(namespace)
+                .withName(name)
+                .withResourceVersion("1")
+                .addToLabels(Util.KIND_LABEL, Util.KIND_VALUE)
+                .addToLabels(Util.TARGET_LABEL, target)
+                .endMetadata()
+                .withData(data)
+                .build();
+    }
+
+    /**
+     * @param containers Number of containers, each with the same env
+     * @param env        Env of each container
+     */
+    public static Deployment deployment(String namespace, String name, int containers, List<EnvVar> env) {
+        return new DeploymentBuilder()
+                .withNewMetadata()
+                .withNamespace(namespace)
+                .withName(name)
+                .withResourceVersion("1")
+                .withGeneration(1L)
+                .addToLabels("app", name)
+                .endMetadata()
+                .withNewSpec()
+                .withNewTemplate()
+                .withNewSpec()
+                .withContainers(containers(containers, env))
+                .endSpec()
+                .endTemplate()
+                .endSpec()
+                .build();
+    }
+
+    public static DeploymentConfig deploymentConfig(String namespace, String name, int containers, List<EnvVar> env) {
+        return new DeploymentConfigBuilder()
+                .withNewMetadata()
+                .withNamespace(namespace)
+                .withName(name)
+                .withResourceVersion("1")
+                .withGeneration(1L)
+                .addToLabels("app", name)
+                .endMetadata()
+                .withNewSpec()
+                .withNewTemplate()
+                .withNewSpec()
+                .withContainers(containers(containers, env))
+                .endSpec()
+                .endTemplate()
+                .endSpec()
+                .build();
+    }
+
+    public static List<Container> containers(int containers, List<EnvVar> env) {
+        final List<Container> list = new ArrayList<>(containers);
+        for (int i = 0; i < containers; i++) {
+            list.add(new ContainerBuilder()
+                    .withName("container-" + i)
+                    .withImage("busybox")
+                    .withEnv(new ArrayList<>(env))
+                    .build());
+        }
+        return list;
+    }
+
+    /**
+     * @return The Environment Variables the operator would create from the data
+     */
+    public static List<EnvVar> env(Map<String, String> data) {
+        final List<EnvVar> env = new ArrayList<>(data.size());
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            env.add(new EnvVar(Util.sanitiseEnvVar(entry.getKey()), entry.getValue(), null));
+        }
+        return env;
+    }
+}
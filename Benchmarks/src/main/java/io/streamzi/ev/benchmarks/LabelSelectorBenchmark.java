@@ -0,0 +1,88 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.streamzi.ev.operator.LabelSelector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deciding whether a ConfigMap event is for the operator, which is done for every ConfigMap event in the
+ * watched namespaces whether or not the operator is interested in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelSelectorBenchmark {
+
+    private static final String PREDICATE = "streamzi.io/kind=ev";
+
+    private static final String SET_PREDICATE = "streamzi.io/kind in (ev),!streamzi.io/paused";
+
+    @Param({"0", "5", "20"})
+    public int otherLabels;
+
+    @Param({"true", "false"})
+    public boolean matching;
+
+    private ConfigMap configMap;
+
+    private LabelSelector selector;
+
+    private LabelSelector setSelector;
+
+    @Setup
+    public void setup() {
+        selector = LabelSelector.parse(PREDICATE);
+        setSelector = LabelSelector.parse(SET_PREDICATE);
+        configMap = Fixtures.configMap("benchmark", "app.cm", "app", Collections.emptyMap());
+        for (int i = 0; i < otherLabels; i++) {
+            configMap.getMetadata().getLabels().put("app.kubernetes.io/label-" + i, "value-" + i);
+        }
+        if (!matching) {
+            configMap.getMetadata().getLabels().put("streamzi.io/kind", "other");
+        }
+    }
+
+    /**
+     * The predicate parsed on every event, as ConfigMapWatcher.labelValid originally did
+     */
+    @Benchmark
+    public boolean splitPerEvent() {
+        final String[] parts = PREDICATE.split("=");
+        if (configMap.getMetadata().getLabels() != null && configMap.getMetadata().getLabels().containsKey(parts[0])) {
+            return configMap.getMetadata().getLabels().get(parts[0]).equals(parts[1]);
+        }
+        return false;
+    }
+
+    /**
+     * The predicate parsed once and matched
+     */
+    @Benchmark
+    public boolean compiledSelector() {
+        return selector.matches(configMap.getMetadata().getLabels());
+    }
+
+    /**
+     * A set based selector parsed once and matched
+     */
+    @Benchmark
+    public boolean compiledSetSelector() {
+        return setSelector.matches(configMap.getMetadata().getLabels());
+    }
+}
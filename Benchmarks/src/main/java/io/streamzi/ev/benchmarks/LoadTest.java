@@ -0,0 +1,622 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.api.model.DeploymentConfigBuilder;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfigBuilder;
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
+import io.streamzi.ev.OperatorConfig;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.election.LeaderElector;
+import io.streamzi.ev.operator.ConfigMapOperator;
+import io.streamzi.ev.operator.DeploymentConfigOperator;
+import io.streamzi.ev.operator.DeploymentOperator;
+import io.streamzi.ev.operator.TargetResolver;
+import io.streamzi.ev.operator.Util;
+import io.streamzi.ev.operator.Workload;
+import io.streamzi.ev.operator.WorkloadWriter;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.Debouncer;
+import io.streamzi.ev.queue.WorkQueue;
+import io.streamzi.ev.watcher.ConfigMapWatcher;
+import io.streamzi.ev.watcher.DeploymentConfigWatcher;
+import io.streamzi.ev.watcher.DeploymentWatcher;
+import io.streamzi.ev.watcher.WatchScope;
+import okhttp3.mockwebserver.MockWebServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Runs the operator, wired together as the Manager does, against a stand-in API server and replays a storm of events
+ * at its three watchers, then reports throughput, reconcile latency, API calls per event, heap growth and any
+ * workload left unreconciled.
+ * <p>
+ * The operator is configured with the usual EV_ Environment Variables. The size of the storm is set with system
+ * properties:
+ * <pre>
+ * java -Dnamespaces=10 -Ddeployments=100 -DdeploymentConfigs=10 -DconfigMaps=200 -Devents=100000 \
+ *      -cp Benchmarks/target/benchmarks.jar io.streamzi.ev.benchmarks.LoadTest
+ * </pre>
+ * With -Dfailover=true a second replica runs on standby, both electing a leader as with EV_LEADER_ELECTION. The
+ * leader is killed half way through the storm without giving up its lease, and the time until the standby takes over
+ * and the work lost on the way are reported.
+ */
+public class LoadTest {
+
+    private static final String CM_PREDICATE = "streamzi.io/kind=ev";
+
+    private static final String LOCK_NAMESPACE = "load-election";
+
+    private static final String LOCK_NAME = "load-leader";
+
+    //Number of namespaces, and of each kind of resource in every namespace
+    private final int namespaces = Integer.getInteger("namespaces", 10);
+
+    private final int deploymentsPerNamespace = Integer.getInteger("deployments", 100);
+
+    private final int deploymentConfigsPerNamespace = Integer.getInteger("deploymentConfigs", 10);
+
+    private final int configMapsPerNamespace = Integer.getInteger("configMaps", 200);
+
+    //Keys in each ConfigMap and containers in each workload
+    private final int keys = Integer.getInteger("keys", 20);
+
+    private final int containers = Integer.getInteger("containers", 2);
+
+    //Events in the storm, and how many to send a second. 0 sends them as fast as the watchers take them.
+    private final int events = Integer.getInteger("events", 100000);
+
+    private final int rate = Integer.getInteger("rate", 0);
+
+    //Run a standby replica and kill the leader half way through the storm
+    private final boolean failover = Boolean.getBoolean("failover");
+
+    private final Random random = new Random(Long.getLong("seed", 1));
+
+    private final OperatorConfig config = OperatorConfig.fromEnv();
+
+    private final StormDispatcher dispatcher = new StormDispatcher();
+
+    //Current state of the resources in the stand-in API server
+    private final List<ConfigMap> liveConfigMaps = new ArrayList<>();
+
+    private final List<Deployment> liveDeployments = new ArrayList<>();
+
+    private final List<DeploymentConfig> liveDeploymentConfigs = new ArrayList<>();
+
+    //Workloads targeted by a ConfigMap event and when the last one was sent (System.nanoTime)
+    private final Map<String, Long> changed = new HashMap<>();
+
+    //Workloads and when any replica last started to reconcile them (System.nanoTime)
+    private final Map<String, Long> reconciled = new ConcurrentHashMap<>();
+
+    private long resourceVersion = 1;
+
+    private int configMapsCreated;
+
+    //Every replica started, and those still running that receive the events
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final List<Replica> live = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Fixtures.quietLogging();
+        new LoadTest().run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+
+        final MockWebServer server = new MockWebServer();
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server.setDispatcher(dispatcher);
+        server.start();
+
+        final OpenShiftClient client = new DefaultOpenShiftClient(new OpenShiftConfigBuilder()
+                .withMasterUrl(server.url("/").toString())
+                .withDisableApiGroupCheck(true)
+                .withMaxConcurrentRequests(config.getHttpMaxRequests())
+                .withMaxConcurrentRequestsPerHost(config.getHttpMaxRequestsPerHost())
+                .build());
+
+        populate();
+
+        final Replica leader = new Replica(client);
+        Replica standby = null;
+        if (failover) {
+            leader.elect(client, "replica-0");
+            while (leader.elected == 0) {
+                Thread.sleep(10);
+            }
+            standby = new Replica(client);
+            standby.elect(client, "replica-1");
+        }
+
+        System.out.println("Load test of " + namespaces + " namespaces, each with " + deploymentsPerNamespace + " Deployments, "
+                + deploymentConfigsPerNamespace + " DeploymentConfigs and " + configMapsPerNamespace + " ConfigMaps of " + keys + " keys"
+                + (failover ? ", failing over to a standby replica half way through" : ""));
+        System.out.println(config);
+
+        //The initial ADDED events that a watch without a resourceVersion receives
+        final long syncStart = System.nanoTime();
+        for (ConfigMap configMap : liveConfigMaps) {
+            configMapEvent(Watcher.Action.ADDED, configMap);
+        }
+        for (Deployment deployment : liveDeployments) {
+            deploymentEvent(Watcher.Action.ADDED, deployment);
+        }
+        for (DeploymentConfig dc : liveDeploymentConfigs) {
+            deploymentConfigEvent(Watcher.Action.ADDED, dc);
+        }
+        drain();
+        System.out.printf("Initial sync of %d resources took %.1fs%n", liveConfigMaps.size() + liveDeployments.size() + liveDeploymentConfigs.size(),
+                (System.nanoTime() - syncStart) / 1e9);
+
+        //Only measure the storm
+        final Map<String, Sample> metricsBefore = samples();
+        final long requestsBefore = dispatcher.getTotal();
+        final Map<String, Long> requestsByMethodBefore = dispatcher.getRequests();
+        final long processedBefore = processed();
+        final long heapBefore = usedHeap();
+
+        long killed = 0;
+        long lost = 0;
+        long droppedAtKill = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            if (rate > 0) {
+                final long due = start + TimeUnit.SECONDS.toNanos(i) / rate;
+                while (System.nanoTime() < due) {
+                    Thread.yield();
+                }
+            }
+            if (standby != null && i == events / 2) {
+                droppedAtKill = standby.queue.getDropped();
+                lost = leader.kill();
+                killed = System.nanoTime();
+            }
+            nextEvent();
+        }
+        final long sent = System.nanoTime();
+        if (standby != null) {
+            while (standby.elected == 0) {
+                Thread.sleep(10);
+            }
+        }
+        drain();
+        final long drained = System.nanoTime();
+
+        final long heapAfter = usedHeap();
+        final List<Sample> metrics = delta(metricsBefore, samples());
+        final long requests = dispatcher.getTotal() - requestsBefore;
+        final Map<String, Long> requestsByMethod = new TreeMap<>();
+        dispatcher.getRequests().forEach((method, count) -> requestsByMethod.put(method, count - requestsByMethodBefore.getOrDefault(method, 0L)));
+
+        System.out.println();
+        System.out.printf("Events:           %d sent in %.1fs, drained %.1fs later%n", events, (sent - start) / 1e9, (drained - sent) / 1e9);
+        System.out.printf("Throughput:       %.0f events/s%n", events / ((drained - start) / 1e9));
+        System.out.printf("Reconciles:       %d (%.2f per event)%n", processed() - processedBefore, (processed() - processedBefore) / (double) events);
+        System.out.printf("Writes:           %.0f applied, %.0f skipped%n", sum(metrics, "ev_workload_writes_total", "result", "applied"), sum(metrics, "ev_workload_writes_total", "result", "skipped"));
+        System.out.printf("Latency:          p50 %s, p99 %s (event received to write applied)%n",
+                millis(quantile(metrics, 0.5, null)), millis(quantile(metrics, 0.99, null)));
+        for (String kind : new String[]{"ConfigMap", "Target", "Deployment", "DeploymentConfig"}) {
+            final double p99 = quantile(metrics, 0.99, kind);
+            if (!Double.isNaN(p99)) {
+                System.out.printf("                  p99 %s for %s events%n", millis(p99), kind);
+            }
+        }
+        System.out.printf("API calls:        %d (%.3f per event) %s%n", requests, requests / (double) events, requestsByMethod);
+        System.out.printf("Heap:             %.1fMB before, %.1fMB after, %+.1fMB%n", heapBefore / 1e6, heapAfter / 1e6, (heapAfter - heapBefore) / 1e6);
+        if (standby != null) {
+            System.out.printf("Failover:         standby took over %.1fs after the leader was killed (lease %ds)%n",
+                    (standby.elected - killed) / 1e9, config.getLeaseDurationSeconds());
+            System.out.printf("                  %d tasks lost with the leader, %d dropped by the standby before it took over%n",
+                    lost, standby.droppedAtElection - droppedAtKill);
+        }
+        System.out.printf("Unreconciled:     %d workloads not reconciled since their last ConfigMap event%n", unreconciled());
+        for (Replica replica : replicas) {
+            System.out.println(replica.queue);
+            if (replica.debouncer != null) {
+                System.out.println(replica.debouncer);
+            }
+        }
+
+        for (Replica replica : live) {
+            replica.stop();
+        }
+        client.close();
+        server.shutdown();
+    }
+
+    /*
+     * Create the resources, each ConfigMap targeting a random workload in its namespace
+     */
+    private void populate() {
+        for (int n = 0; n < namespaces; n++) {
+            final String namespace = "load-" + n;
+            for (int d = 0; d < deploymentsPerNamespace; d++) {
+                liveDeployments.add(Fixtures.deployment(namespace, "app-" + d, containers, Collections.emptyList()));
+            }
+            for (int d = 0; d < deploymentConfigsPerNamespace; d++) {
+                liveDeploymentConfigs.add(Fixtures.deploymentConfig(namespace, "dc-" + d, containers, Collections.emptyList()));
+            }
+            for (int c = 0; c < configMapsPerNamespace; c++) {
+                liveConfigMaps.add(newConfigMap(namespace));
+            }
+        }
+    }
+
+    /*
+     * Send one event, weighted towards ConfigMap changes as in a GitOps sync
+     */
+    private void nextEvent() {
+        final int roll = random.nextInt(100);
+
+        if (roll < 50 || liveConfigMaps.isEmpty()) {
+            //A value changes
+            final int index = random.nextInt(liveConfigMaps.size());
+            final ConfigMap previous = liveConfigMaps.get(index);
+            final Map<String, String> data = new HashMap<>(previous.getData());
+            data.put("key." + random.nextInt(keys) + ".bootstrap.servers", "my-cluster-kafka:" + random.nextInt(65536));
+            final ConfigMap modified = new ConfigMapBuilder(previous)
+                    .editMetadata().withResourceVersion(nextResourceVersion()).endMetadata()
+                    .withData(data)
+                    .build();
+            liveConfigMaps.set(index, modified);
+            configMapEvent(Watcher.Action.MODIFIED, modified);
+
+        } else if (roll < 60) {
+            final ConfigMap added = newConfigMap("load-" + random.nextInt(namespaces));
+            liveConfigMaps.add(added);
+            configMapEvent(Watcher.Action.ADDED, added);
+
+        } else if (roll < 70) {
+            final ConfigMap deleted = liveConfigMaps.remove(random.nextInt(liveConfigMaps.size()));
+            configMapEvent(Watcher.Action.DELETED, deleted);
+
+        } else if (roll < 85 && !liveDeployments.isEmpty()) {
+            //A new image, which changes the spec and so the generation
+            final int index = random.nextInt(liveDeployments.size());
+            final Deployment previous = liveDeployments.get(index);
+            final Deployment modified = new DeploymentBuilder(previous)
+                    .editMetadata()
+                    .withResourceVersion(nextResourceVersion())
+                    .withGeneration(previous.getMetadata().getGeneration() + 1)
+                    .endMetadata()
+                    .build();
+            liveDeployments.set(index, modified);
+            deploymentEvent(Watcher.Action.MODIFIED, modified);
+
+        } else if (roll < 95 && !liveDeployments.isEmpty()) {
+            //A status update, which the watcher should drop
+            final int index = random.nextInt(liveDeployments.size());
+            final Deployment modified = new DeploymentBuilder(liveDeployments.get(index))
+                    .editMetadata().withResourceVersion(nextResourceVersion()).endMetadata()
+                    .build();
+            liveDeployments.set(index, modified);
+            deploymentEvent(Watcher.Action.MODIFIED, modified);
+
+        } else if (!liveDeploymentConfigs.isEmpty()) {
+            final int index = random.nextInt(liveDeploymentConfigs.size());
+            final DeploymentConfig previous = liveDeploymentConfigs.get(index);
+            final DeploymentConfig modified = new DeploymentConfigBuilder(previous)
+                    .editMetadata()
+                    .withResourceVersion(nextResourceVersion())
+                    .withGeneration(previous.getMetadata().getGeneration() + 1)
+                    .endMetadata()
+                    .build();
+            liveDeploymentConfigs.set(index, modified);
+            deploymentConfigEvent(Watcher.Action.MODIFIED, modified);
+        }
+    }
+
+    /*
+     * Send an event to every replica that is still running, as they all watch every resource
+     */
+    private void configMapEvent(Watcher.Action action, ConfigMap configMap) {
+        final String target = configMap.getMetadata().getNamespace() + "/" + configMap.getMetadata().getLabels().get(Util.TARGET_LABEL);
+        //Once the last ConfigMap for a workload has gone there is nothing left to reconcile
+        if (action != Watcher.Action.DELETED || targeted(target)) {
+            changed.put(target, System.nanoTime());
+        }
+        for (Replica replica : live) {
+            replica.cmw.eventReceived(action, configMap);
+        }
+    }
+
+    private void deploymentEvent(Watcher.Action action, Deployment deployment) {
+        for (Replica replica : live) {
+            replica.dw.eventReceived(action, deployment);
+        }
+    }
+
+    private void deploymentConfigEvent(Watcher.Action action, DeploymentConfig dc) {
+        for (Replica replica : live) {
+            replica.dcw.eventReceived(action, dc);
+        }
+    }
+
+    private boolean targeted(String target) {
+        for (ConfigMap configMap : liveConfigMaps) {
+            if (target.equals(configMap.getMetadata().getNamespace() + "/" + configMap.getMetadata().getLabels().get(Util.TARGET_LABEL))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Workloads that have not been reconciled since the last ConfigMap event for them
+     */
+    private int unreconciled() {
+        int unreconciled = 0;
+        for (Map.Entry<String, Long> change : changed.entrySet()) {
+            final Long last = reconciled.get(change.getKey());
+            if (last == null || last - change.getValue() < 0) {
+                unreconciled++;
+            }
+        }
+        return unreconciled;
+    }
+
+    private ConfigMap newConfigMap(String namespace) {
+        final int workload = random.nextInt(deploymentsPerNamespace + deploymentConfigsPerNamespace);
+        final String target = workload < deploymentsPerNamespace ? "app-" + workload : "dc-" + (workload - deploymentsPerNamespace);
+        final ConfigMap configMap = Fixtures.configMap(namespace, "cm-" + configMapsCreated++, target, Fixtures.data(keys, 1));
+        configMap.getMetadata().setResourceVersion(nextResourceVersion());
+        return configMap;
+    }
+
+    private String nextResourceVersion() {
+        return String.valueOf(++resourceVersion);
+    }
+
+
+    private long processed() {
+        long processed = 0;
+        for (Replica replica : replicas) {
+            processed += replica.queue.getProcessed();
+        }
+        return processed;
+    }
+
+    /*
+     * Wait until nothing is held back or queued and the number of reconciles has stopped changing
+     */
+    private void drain() throws InterruptedException {
+        long processed = -1;
+        int quiet = 0;
+        while (quiet < 3) {
+            Thread.sleep(100);
+            boolean idle = true;
+            for (Replica replica : live) {
+                idle &= replica.queue.getDepth() == 0 && (replica.debouncer == null || replica.debouncer.getPending() == 0);
+            }
+            quiet = idle && processed() == processed ? quiet + 1 : 0;
+            processed = processed();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /*
+     * Every sample currently in the registry, keyed by name and labels
+     */
+    private static Map<String, Sample> samples() {
+        final Map<String, Sample> samples = new HashMap<>();
+        for (Collector.MetricFamilySamples family : Collections.list(CollectorRegistry.defaultRegistry.metricFamilySamples())) {
+            for (Sample sample : family.samples) {
+                samples.put(sample.name + sample.labelNames + sample.labelValues, sample);
+            }
+        }
+        return samples;
+    }
+
+    /*
+     * How much each sample has grown by
+     */
+    private static List<Sample> delta(Map<String, Sample> before, Map<String, Sample> after) {
+        final List<Sample> delta = new ArrayList<>();
+        for (Map.Entry<String, Sample> entry : after.entrySet()) {
+            final Sample sample = entry.getValue();
+            final Sample previous = before.get(entry.getKey());
+            delta.add(new Sample(sample.name, sample.labelNames, sample.labelValues, sample.value - (previous != null ? previous.value : 0)));
+        }
+        return delta;
+    }
+
+    /*
+     * Sum of the samples of a counter that have the label value
+     */
+    private static double sum(List<Sample> samples, String name, String label, String value) {
+        double sum = 0;
+        for (Sample sample : samples) {
+            final int index = sample.labelNames.indexOf(label);
+            if (sample.name.startsWith(name) && index >= 0 && sample.labelValues.get(index).equals(value)) {
+                sum += sample.value;
+            }
+        }
+        return sum;
+    }
+
+    /*
+     * Estimate a quantile of the reconcile latency from the histogram buckets, as Prometheus' histogram_quantile does
+     *
+     * @param kind Kind of event, or null for all of them
+     */
+    private static double quantile(List<Sample> samples, double q, String kind) {
+        //Upper bound -> cumulative count, summed over the kinds
+        final TreeMap<Double, Double> buckets = new TreeMap<>();
+        for (Sample sample : samples) {
+            if (sample.name.equals("ev_reconcile_latency_seconds_bucket")
+                    && (kind == null || kind.equals(sample.labelValues.get(sample.labelNames.indexOf("kind"))))) {
+                final double le = Double.parseDouble(sample.labelValues.get(sample.labelNames.indexOf("le")).replace("+Inf", "Infinity"));
+                buckets.merge(le, sample.value, Double::sum);
+            }
+        }
+        if (buckets.isEmpty() || buckets.lastEntry().getValue() == 0) {
+            return Double.NaN;
+        }
+
+        final double rank = q * buckets.lastEntry().getValue();
+        double lower = 0;
+        double below = 0;
+        for (Map.Entry<Double, Double> bucket : buckets.entrySet()) {
+            if (bucket.getValue() >= rank) {
+                if (bucket.getKey().isInfinite()) {
+                    return lower;
+                }
+                return lower + (bucket.getKey() - lower) * (rank - below) / (bucket.getValue() - below);
+            }
+            lower = bucket.getKey();
+            below = bucket.getValue();
+        }
+        return lower;
+    }
+
+    private static String millis(double seconds) {
+        return Double.isNaN(seconds) ? "-" : String.format("%.1fms", seconds * 1000);
+    }
+
+    /*
+     * One replica of the operator, wired together as the Manager does. The caches start empty, the initial ADDED
+     * events fill them.
+     */
+    private class Replica {
+
+        private final ResourceCache<ConfigMap> configMaps = new ResourceCache<>();
+
+        private final ResourceCache<DeploymentConfig> deploymentConfigs = new ResourceCache<>();
+
+        private final ResourceCache<Deployment> deployments = new ResourceCache<>();
+
+        private final WorkQueue queue;
+
+        private final Debouncer debouncer;
+
+        private final ConfigMapWatcher cmw;
+
+        private final DeploymentWatcher dw;
+
+        private final DeploymentConfigWatcher dcw;
+
+        private Thread election;
+
+        //When this replica became the leader (System.nanoTime), and how many tasks it had dropped on standby by then
+        private volatile long elected;
+
+        private volatile long droppedAtElection;
+
+        Replica(OpenShiftClient client) {
+            configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+            configMaps.addIndex(TargetResolver.SELECTOR_INDEX, TargetResolver::getSelectorKey);
+            deploymentConfigs.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+            deployments.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+
+            queue = new WorkQueue(config.getWorkers(), config.getMaxInFlight(), config.isVirtualThreads());
+            queue.start();
+
+            //Every reconcile of a workload that has ConfigMaps comes through the writer, whether or not it writes
+            final WriteTracker writes = new WriteTracker();
+            final WorkloadWriter writer = new WorkloadWriter(client, writes, config.getWriteMode(), config.getWriteAttempts()) {
+                @Override
+                public <T extends HasMetadata> boolean update(Workload<T> workload, T current, Predicate<T> change) {
+                    reconciled.put(current.getMetadata().getNamespace() + "/" + current.getMetadata().getName(), System.nanoTime());
+                    return super.update(workload, current, change);
+                }
+            };
+
+            final TargetResolver resolver = new TargetResolver(configMaps, deploymentConfigs, deployments);
+            final DeploymentConfigOperator dco = new DeploymentConfigOperator(resolver, writer);
+            final DeploymentOperator dop = new DeploymentOperator(resolver, writer);
+            final ConfigMapOperator cmo = new ConfigMapOperator(deploymentConfigs, deployments, resolver, writer, dco, dop);
+
+            final List<String> names = new ArrayList<>();
+            for (int n = 0; n < namespaces; n++) {
+                names.add("load-" + n);
+            }
+            final WatchScope scope = new WatchScope(names);
+
+            dcw = new DeploymentConfigWatcher(client, dco, deploymentConfigs, queue, writes, scope);
+            dw = new DeploymentWatcher(client, dop, deployments, queue, writes, scope);
+            cmw = new ConfigMapWatcher(client, cmo, CM_PREDICATE, configMaps, queue, scope);
+
+            if (config.getBatchWindowMillis() > 0) {
+                debouncer = new Debouncer(config.getBatchWindowMillis(), config.getBatchMaxWaitMillis(), TimeUnit.MILLISECONDS);
+                cmw.setDebouncer(debouncer);
+            } else {
+                debouncer = null;
+            }
+
+            replicas.add(this);
+            live.add(this);
+        }
+
+        /*
+         * Stand by until elected, then resync from the caches as the Manager does
+         */
+        void elect(OpenShiftClient client, String identity) {
+            queue.setActive(false);
+            final LeaderElector elector = new LeaderElector(client, LOCK_NAMESPACE, LOCK_NAME, identity,
+                    config.getLeaseDurationSeconds(), config.getRenewDeadlineSeconds(), config.getRetryPeriodSeconds(), TimeUnit.SECONDS,
+                    () -> {
+                        droppedAtElection = queue.getDropped();
+                        elected = System.nanoTime();
+                        queue.setActive(true);
+                        dcw.resync();
+                        dw.resync();
+                        cmw.resync();
+                    },
+                    () -> queue.setActive(false));
+            election = new Thread(elector, identity);
+            election.setDaemon(true);
+            election.start();
+        }
+
+        /*
+         * Stop receiving events and stop electing without giving up the lease, as a replica that crashes does
+         *
+         * @return Number of tasks that were waiting to be reconciled
+         */
+        long kill() throws InterruptedException {
+            live.remove(this);
+            final long waiting = queue.getDepth() + (debouncer != null ? debouncer.getPending() : 0);
+            election.interrupt();
+            election.join();
+            stop();
+            return waiting;
+        }
+
+        void stop() throws InterruptedException {
+            if (debouncer != null) {
+                debouncer.stop();
+            }
+            queue.stop(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.mockwebserver.ContextBuilder;
+import io.fabric8.mockwebserver.ServerRequest;
+import io.fabric8.mockwebserver.ServerResponse;
+import io.fabric8.mockwebserver.internal.MockDispatcher;
+import io.fabric8.openshift.client.NamespacedOpenShiftClient;
+import io.fabric8.openshift.client.server.mock.OpenShiftMockServer;
+import okhttp3.mockwebserver.MockWebServer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * The fabric8 mock API server, answering from expectations set with {@link #expect()}.
+ * <p>
+ * Accepted sockets have TCP_NODELAY set, see {@link NoDelayServerSocketFactory}.
+ */
+public class MockApiServer extends OpenShiftMockServer {
+
+    public MockApiServer() {
+        this(noDelayServer(), new HashMap<>());
+    }
+
+    private MockApiServer(MockWebServer server, Map<ServerRequest, Queue<ServerResponse>> responses) {
+        super(new ContextBuilder().build(), server, responses, new MockDispatcher(responses), false);
+        start();
+    }
+
+    public NamespacedOpenShiftClient client() {
+        return createOpenShiftClient();
+    }
+
+    private static MockWebServer noDelayServer() {
+        final MockWebServer server = new MockWebServer();
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        return server;
+    }
+}
@@ -0,0 +1,35 @@
+package io.streamzi.ev.benchmarks;
+
+import io.streamzi.ev.operator.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one ConfigMap key into an Environment Variable name
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SanitiseEnvVarBenchmark {
+
+    @Param({"topic", "bootstrap.servers", "ssl.endpoint.identification.algorithm.for.the.consumer.group", "ALREADY_SANITISED"})
+    public String key;
+
+    @Benchmark
+    public String sanitise() {
+        return Util.sanitiseEnvVar(key);
+    }
+}
@@ -0,0 +1,129 @@
+package io.streamzi.ev.benchmarks;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the API server during the load test. Every PATCH of a Deployment or DeploymentConfig succeeds and
+ * returns the workload with a new resourceVersion. ConfigMaps can be created, read and replaced, with a conflict if
+ * the replacement was made from an old resourceVersion, which is all that leader election needs. Anything else is
+ * answered with a 404. Requests are counted by method.
+ */
+public class StormDispatcher extends Dispatcher {
+
+    private final AtomicLong resourceVersion = new AtomicLong(1000);
+
+    private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentHashMap<>();
+
+    //namespace/name -> ConfigMap
+    private final Map<String, ConfigMap> configMaps = new HashMap<>();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        requests.computeIfAbsent(request.getMethod(), m -> new AtomicLong()).incrementAndGet();
+
+        //e.g. /apis/extensions/v1beta1/namespaces/load-0/deployments/app-1
+        final String[] path = request.getPath().split("\\?")[0].split("/");
+        if (path.length >= 3 && "namespaces".equals(path[path.length - 3]) && "configmaps".equals(path[path.length - 1])) {
+            return configMap(request, path[path.length - 2], null);
+        }
+        if (path.length < 4 || !"namespaces".equals(path[path.length - 4])) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        final String namespace = path[path.length - 3];
+        final String plural = path[path.length - 2];
+        final String name = path[path.length - 1];
+        if ("configmaps".equals(plural)) {
+            return configMap(request, namespace, name);
+        }
+        if (!"PATCH".equals(request.getMethod())) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        final String kind = "deploymentconfigs".equals(plural) ? "DeploymentConfig" : "Deployment";
+        final String apiVersion = "deploymentconfigs".equals(plural) ? "v1" : "extensions/v1beta1";
+
+        return new MockResponse()
+                .setResponseCode(200)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"apiVersion\":\"" + apiVersion + "\",\"kind\":\"" + kind + "\",\"metadata\":{\"namespace\":\"" + namespace
+                        + "\",\"name\":\"" + name + "\",\"resourceVersion\":\"" + resourceVersion.incrementAndGet() + "\"}}");
+    }
+
+    /**
+     * @return Number of requests received for each HTTP method
+     */
+    public Map<String, Long> getRequests() {
+        final Map<String, Long> counts = new TreeMap<>();
+        requests.forEach((method, count) -> counts.put(method, count.get()));
+        return counts;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (AtomicLong count : requests.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /*
+     * Create a ConfigMap in the namespace when there is no name, otherwise read or replace the named one
+     */
+    private synchronized MockResponse configMap(RecordedRequest request, String namespace, String name) {
+        final String method = request.getMethod();
+
+        if (name == null) {
+            if (!"POST".equals(method)) {
+                return new MockResponse().setResponseCode(404);
+            }
+            final ConfigMap created = Serialization.unmarshal(request.getBody().readUtf8(), ConfigMap.class);
+            final String key = namespace + "/" + created.getMetadata().getName();
+            if (configMaps.containsKey(key)) {
+                return new MockResponse().setResponseCode(409);
+            }
+            return store(key, created, 201);
+        }
+
+        final String key = namespace + "/" + name;
+        final ConfigMap current = configMaps.get(key);
+        if (current == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        if ("GET".equals(method)) {
+            return reply(current, 200);
+        }
+        if ("PUT".equals(method)) {
+            final ConfigMap replacement = Serialization.unmarshal(request.getBody().readUtf8(), ConfigMap.class);
+            if (!current.getMetadata().getResourceVersion().equals(replacement.getMetadata().getResourceVersion())) {
+                return new MockResponse().setResponseCode(409);
+            }
+            return store(key, replacement, 200);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private MockResponse store(String key, ConfigMap configMap, int code) {
+        configMap.getMetadata().setResourceVersion(String.valueOf(resourceVersion.incrementAndGet()));
+        configMaps.put(key, configMap);
+        return reply(configMap, code);
+    }
+
+    private static MockResponse reply(ConfigMap configMap, int code) {
+        return new MockResponse()
+                .setResponseCode(code)
+                .setHeader("Content-Type", "application/json")
+                .setBody(Serialization.asJson(configMap));
+    }
+}
@@ -0,0 +1,59 @@
+package io.streamzi.ev;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfig;
+import io.streamzi.ev.metrics.ApiCallInterceptor;
+import io.streamzi.ev.ratelimit.RateLimitInterceptor;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the single OpenShiftClient that the whole operator shares.
+ * <p>
+ * Building a client reads the kubeconfig or service account token and creates a new OkHttp connection pool, so the
+ * client is created once at startup and passed to everything that talks to the API server.
+ */
+public class ClientFactory {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(ClientFactory.class);
+
+    private ClientFactory() {
+    }
+
+    public static OpenShiftClient create(OperatorConfig config) {
+
+        final Config kubernetesConfig = Config.autoConfigure(null);
+
+        //Every watch holds one of these for as long as it is open, so the limits must allow for all of them as well as the writes
+        kubernetesConfig.setMaxConcurrentRequests(config.getHttpMaxRequests());
+        kubernetesConfig.setMaxConcurrentRequestsPerHost(config.getHttpMaxRequestsPerHost());
+
+        //Outside the ApiCallInterceptor so that a request that is retried is counted for each attempt
+        final RateLimitInterceptor rateLimit = new RateLimitInterceptor(config.getApiReadsPerSecond(), config.getApiWritesPerSecond(),
+                TimeUnit.MILLISECONDS.toNanos(config.getApiLatencyTargetMillis()));
+
+        final OkHttpClient httpClient = HttpClientUtils.createHttpClient(kubernetesConfig).newBuilder()
+                .connectionPool(new ConnectionPool(config.getHttpMaxIdleConnections(), config.getHttpKeepAliveSeconds(), TimeUnit.SECONDS))
+                //HTTP/2 is negotiated with ALPN so falls back to HTTP/1.1 where the JVM or API server doesn't support it
+                .protocols(config.isHttp2()
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .addInterceptor(rateLimit)
+                .addInterceptor(new ApiCallInterceptor())
+                .build();
+
+        logger.info("Created client for " + kubernetesConfig.getMasterUrl() + " with protocols " + httpClient.protocols()
+                + ", maxRequests=" + config.getHttpMaxRequests() + ", maxRequestsPerHost=" + config.getHttpMaxRequestsPerHost() + ", " + rateLimit);
+
+        return new DefaultOpenShiftClient(httpClient, OpenShiftConfig.wrap(kubernetesConfig));
+    }
+}
@@ -1,15 +1,39 @@
 package io.streamzi.ev;
 
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.checkpoint.Checkpoint;
+import io.streamzi.ev.election.LeaderElector;
+import io.streamzi.ev.election.ShardCoordinator;
+import io.streamzi.ev.metrics.Metrics;
 import io.streamzi.ev.operator.ConfigMapOperator;
 import io.streamzi.ev.operator.DeploymentConfigOperator;
 import io.streamzi.ev.operator.DeploymentOperator;
+import io.streamzi.ev.operator.RolloutScheduler;
+import io.streamzi.ev.operator.TargetResolver;
+import io.streamzi.ev.operator.Util;
+import io.streamzi.ev.operator.WorkloadWriter;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.Debouncer;
+import io.streamzi.ev.queue.WorkQueue;
 import io.streamzi.ev.watcher.ConfigMapWatcher;
 import io.streamzi.ev.watcher.DeploymentConfigWatcher;
 import io.streamzi.ev.watcher.DeploymentWatcher;
+import io.streamzi.ev.watcher.PeriodicResync;
+import io.streamzi.ev.watcher.ResourceFilter;
+import io.streamzi.ev.watcher.WatchScope;
+import io.prometheus.client.exporter.HTTPServer;
 import org.apache.logging.log4j.LogManager;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,6 +45,12 @@ public class Manager {
 
     private static final String CM_PREDICATE = "streamzi.io/kind=ev";
 
+    //How often to log the WorkQueue and WriteTracker statistics
+    private static final long QUEUE_STATS_INTERVAL_SECONDS = 60;
+
+    //How often the checkpoint is written to disk. Workloads reconciled since the last flush are reconciled again after a crash.
+    private static final long CHECKPOINT_FLUSH_SECONDS = 5;
+
     public Manager() {
     }
 
@@ -28,23 +58,207 @@ public class Manager {
 
         logger.info("\uD83D\uDEE0 Starting Environment Variable Operator \uD83D\uDEE0");
 
-        DeploymentConfigWatcher dcw = new DeploymentConfigWatcher(new DeploymentConfigOperator());
-        DeploymentWatcher dw = new DeploymentWatcher(new DeploymentOperator());
-        ConfigMapWatcher cmw = new ConfigMapWatcher(new ConfigMapOperator(), CM_PREDICATE);
+        final OperatorConfig config = OperatorConfig.fromEnv();
+        logger.info(config);
+
+        //One client, and so one connection pool, for everything
+        final OpenShiftClient osClient = ClientFactory.create(config);
+
+        //Prime the caches with one list of each resource. The watchers keep them up to date from then on.
+        final WatchScope scope = new WatchScope(config.getNamespaces().isEmpty()
+                ? Collections.singletonList(osClient.getNamespace())
+                : config.getNamespaces());
+
+        //The API server filters the lists and watches so that unrelated resources are never sent to the operator
+        final ResourceFilter configMapFilter = new ResourceFilter(CM_PREDICATE, null);
+        final ResourceFilter workloadFilter = new ResourceFilter(config.getWorkloadSelector(), config.getWorkloadFieldSelector());
+
+        final ResourceCache<ConfigMap> configMaps = new ResourceCache<>();
+        configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+        configMaps.addIndex(TargetResolver.SELECTOR_INDEX, TargetResolver::getSelectorKey);
+        configMaps.replace(scope.list("ConfigMaps", osClient.configMaps(), configMapFilter));
+
+        final ResourceCache<DeploymentConfig> deploymentConfigs = new ResourceCache<>();
+        deploymentConfigs.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        deploymentConfigs.replace(scope.list("DeploymentConfigs", osClient.deploymentConfigs(), workloadFilter));
+
+        final ResourceCache<Deployment> deployments = new ResourceCache<>();
+        deployments.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        deployments.replace(scope.list("Deployments", osClient.extensions().deployments(), workloadFilter));
+
+        logger.info("Cached " + configMaps.size() + " ConfigMaps, " + deploymentConfigs.size() + " DeploymentConfigs and " + deployments.size() + " Deployments in " + scope);
+
+        //The watchers queue work rather than calling the operators on the watch threads
+        final WorkQueue queue = new WorkQueue(config.getWorkers(), config.getMaxInFlight(), config.isVirtualThreads());
+        queue.start();
+
+        Metrics.cacheSize("ConfigMap", configMaps::size);
+        Metrics.cacheSize("DeploymentConfig", deploymentConfigs::size);
+        Metrics.cacheSize("Deployment", deployments::size);
+        Metrics.queueDepth(queue::getDepth);
+
+        HTTPServer metricsServer = null;
+        if (config.getMetricsPort() > 0) {
+            try {
+                metricsServer = Metrics.serve(config.getMetricsPort());
+                logger.info("Serving metrics on port " + config.getMetricsPort());
+            } catch (IOException e) {
+                logger.error("Unable to serve metrics on port " + config.getMetricsPort(), e);
+            }
+        }
+
+        //Shared so that a write by any operator is recognised by the watcher that receives its event
+        final WriteTracker writes = new WriteTracker();
+        final WorkloadWriter writer = new WorkloadWriter(osClient, writes, config.getWriteMode(), config.getWriteAttempts());
+
+        final TargetResolver resolver = new TargetResolver(configMaps, deploymentConfigs, deployments);
+        final DeploymentConfigOperator dco = new DeploymentConfigOperator(resolver, writer);
+        final DeploymentOperator dop = new DeploymentOperator(resolver, writer);
+        final ConfigMapOperator cmo = new ConfigMapOperator(deploymentConfigs, deployments, resolver, writer, dco, dop);
+
+        Checkpoint checkpoint = null;
+        if (config.getCheckpointFile() != null) {
+            try {
+                checkpoint = Checkpoint.open(Paths.get(config.getCheckpointFile()));
+                dco.setCheckpoint(checkpoint);
+                dop.setCheckpoint(checkpoint);
+            } catch (IOException e) {
+                logger.error("Unable to open checkpoint " + config.getCheckpointFile() + ", every workload will be reconciled", e);
+            }
+        }
+
+        final DeploymentConfigWatcher dcw = new DeploymentConfigWatcher(osClient, dco, deploymentConfigs, queue, writes, scope);
+        final DeploymentWatcher dw = new DeploymentWatcher(osClient, dop, deployments, queue, writes, scope);
+        final ConfigMapWatcher cmw = new ConfigMapWatcher(osClient, cmo, CM_PREDICATE, configMaps, queue, scope);
+        dcw.setFilter(workloadFilter);
+        dw.setFilter(workloadFilter);
+
+        //Merge changes to several ConfigMaps for the same target into one write, and so one rollout
+        final Debouncer debouncer = config.getBatchWindowMillis() > 0
+                ? new Debouncer(config.getBatchWindowMillis(), config.getBatchMaxWaitMillis(), TimeUnit.MILLISECONDS)
+                : null;
+        if (debouncer != null) {
+            cmw.setDebouncer(debouncer);
+        }
+
+        //Limit how many targets of ConfigMap changes roll out at once
+        final RolloutScheduler rollouts = config.getRolloutMaxConcurrent() > 0
+                ? new RolloutScheduler(deploymentConfigs, deployments, queue, config.getRolloutMaxConcurrent(),
+                config.isRolloutWaitReady(), config.getRolloutTimeoutSeconds(), TimeUnit.SECONDS)
+                : null;
+        if (rollouts != null) {
+            writer.setListener(rollouts);
+            cmw.setRolloutScheduler(rollouts);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        if (config.isSharding()) {
+
+            if (config.isLeaderElection()) {
+                logger.warn("Both " + OperatorConfig.SHARDING + " and " + OperatorConfig.LEADER_ELECTION + " are set, splitting the work between the replicas rather than electing a leader");
+            }
+
+            //Every replica keeps a full cache so that a rebalance only needs a resync, but only reconciles its own shard.
+            //Nothing is owned until the membership is known, then the first rebalance resyncs the whole of this shard.
+            final ShardCoordinator coordinator = new ShardCoordinator(osClient,
+                    config.getShardNamespace() != null ? config.getShardNamespace() : osClient.getNamespace(),
+                    config.getShardGroup(),
+                    config.getIdentity(),
+                    config.getShardBy(),
+                    config.getLeaseDurationSeconds(), config.getRetryPeriodSeconds(), TimeUnit.SECONDS,
+                    gained -> {
+                        dcw.resync(gained);
+                        dw.resync(gained);
+                        cmw.resync(gained);
+                    });
+            queue.setOwnership(coordinator::owns);
+            executor.submit(coordinator);
+
+        } else if (config.isLeaderElection()) {
+
+            //Keep the caches warm but don't reconcile until elected. The resync catches up with the events dropped while on standby.
+            queue.setActive(false);
+            final LeaderElector elector = new LeaderElector(osClient,
+                    config.getLeaderElectionNamespace() != null ? config.getLeaderElectionNamespace() : osClient.getNamespace(),
+                    config.getLeaderElectionName(),
+                    config.getIdentity(),
+                    config.getLeaseDurationSeconds(), config.getRenewDeadlineSeconds(), config.getRetryPeriodSeconds(), TimeUnit.SECONDS,
+                    () -> {
+                        logger.info("Starting to reconcile, " + queue.getDropped() + " events were received while on standby");
+                        queue.setActive(true);
+                        dcw.resync();
+                        dw.resync();
+                        cmw.resync();
+                    },
+                    () -> {
+                        queue.setActive(false);
+                        if (rollouts != null) {
+                            rollouts.clear();
+                        }
+                    });
+            executor.submit(elector);
+
+        } else {
+
+            //The watches carry on from the lists rather than sending everything as ADDED, so reconcile what is already
+            //there. Every ConfigMap is applied through the workloads it targets, and with a checkpoint only the
+            //workloads that changed while the operator was down get further than a fingerprint.
+            dcw.resync();
+            dw.resync();
+        }
 
-        final ExecutorService executor = Executors.newFixedThreadPool(3);
         executor.submit(dcw);
         executor.submit(dw);
         executor.submit(cmw);
+        logger.info("Started in " + Metrics.started() + "s");
+
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final Checkpoint opened = checkpoint;
+        scheduler.scheduleAtFixedRate(() -> logger.info(queue + " " + writes + (debouncer != null ? " " + debouncer : "") + (rollouts != null ? " " + rollouts : "") + (opened != null ? " " + opened : "")),
+                QUEUE_STATS_INTERVAL_SECONDS, QUEUE_STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (opened != null) {
+            scheduler.scheduleWithFixedDelay(opened::flush, CHECKPOINT_FLUSH_SECONDS, CHECKPOINT_FLUSH_SECONDS, TimeUnit.SECONDS);
+        }
+
+        if (config.getResyncPeriodSeconds() > 0) {
+            final long interval = Math.max(1, TimeUnit.SECONDS.toMillis(config.getResyncPeriodSeconds()) / config.getResyncSlices());
+            scheduler.scheduleWithFixedDelay(new PeriodicResync(queue, config.getResyncSlices(), dcw::resync, dw::resync, cmw::resync),
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
 
+        final HTTPServer metrics = metricsServer;
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             logger.info("Shutting down");
-            executor.shutdown();
+            scheduler.shutdown();
+            if (metrics != null) {
+                metrics.close();
+            }
+            dcw.close();
+            dw.close();
+            cmw.close();
+            if (rollouts != null) {
+                rollouts.stop();
+            }
+            if (debouncer != null) {
+                debouncer.stop();
+            }
+            //Interrupt the leader election or shard coordinator so that it stops renewing the lease
+            executor.shutdownNow();
             try {
+                queue.stop(5000, TimeUnit.MILLISECONDS);
                 executor.awaitTermination(5000, TimeUnit.MILLISECONDS);
             } catch (InterruptedException ie) {
                 logger.fatal("Error on close", ie);
             }
+            if (opened != null) {
+                try {
+                    opened.close();
+                } catch (IOException e) {
+                    logger.warn("Unable to close checkpoint", e);
+                }
+            }
+            osClient.close();
         }));
 
 
@@ -0,0 +1,414 @@
+package io.streamzi.ev;
+
+import io.streamzi.ev.election.ShardCoordinator;
+import io.streamzi.ev.operator.WorkloadWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Settings for the operator, read from the Environment Variables of the operator's own container.
+ */
+public class OperatorConfig {
+
+    //patch (default) or replace
+    public static final String WRITE_MODE = "EV_WRITE_MODE";
+
+    //Number of attempts at writing a workload when the API server reports a conflict
+    public static final String WRITE_ATTEMPTS = "EV_WRITE_ATTEMPTS";
+
+    //Comma separated namespaces to watch, or * for all namespaces. Defaults to the namespace of the client.
+    public static final String NAMESPACES = "EV_NAMESPACES";
+
+    //Number of threads reconciling workloads. Defaults to the number of cores.
+    public static final String WORKERS = "EV_WORKERS";
+
+    //true to reconcile on virtual threads when running on Java 21 or later. The workers then default to 1024.
+    public static final String VIRTUAL_THREADS = "EV_VIRTUAL_THREADS";
+
+    //Reconciles allowed to run at once, to protect the API server. Defaults to the number of workers, or 64 with
+    //virtual threads.
+    public static final String MAX_IN_FLIGHT = "EV_MAX_IN_FLIGHT";
+
+    //true to run as one of several replicas with only the elected leader reconciling
+    public static final String LEADER_ELECTION = "EV_LEADER_ELECTION";
+
+    //Namespace and name of the ConfigMap holding the leader lease. The namespace defaults to the namespace of the client.
+    public static final String LEADER_ELECTION_NAMESPACE = "EV_LEADER_ELECTION_NAMESPACE";
+
+    public static final String LEADER_ELECTION_NAME = "EV_LEADER_ELECTION_NAME";
+
+    public static final String LEASE_DURATION_SECONDS = "EV_LEASE_DURATION_SECONDS";
+
+    public static final String RENEW_DEADLINE_SECONDS = "EV_RENEW_DEADLINE_SECONDS";
+
+    public static final String RETRY_PERIOD_SECONDS = "EV_RETRY_PERIOD_SECONDS";
+
+    //true to split the work between all of the replicas in the group instead of electing a leader
+    public static final String SHARDING = "EV_SHARDING";
+
+    //namespace (default) or target
+    public static final String SHARD_BY = "EV_SHARD_BY";
+
+    //Name shared by the replicas that split the work, and the namespace of their membership ConfigMaps
+    public static final String SHARD_GROUP = "EV_SHARD_GROUP";
+
+    public static final String SHARD_NAMESPACE = "EV_SHARD_NAMESPACE";
+
+    //Connections kept open to the API server, and how long an idle one is kept
+    public static final String HTTP_MAX_IDLE_CONNECTIONS = "EV_HTTP_MAX_IDLE_CONNECTIONS";
+
+    public static final String HTTP_KEEP_ALIVE_SECONDS = "EV_HTTP_KEEP_ALIVE_SECONDS";
+
+    //Concurrent requests, including open watches, in total and to the API server
+    public static final String HTTP_MAX_REQUESTS = "EV_HTTP_MAX_REQUESTS";
+
+    public static final String HTTP_MAX_REQUESTS_PER_HOST = "EV_HTTP_MAX_REQUESTS_PER_HOST";
+
+    //false to only use HTTP/1.1
+    public static final String HTTP2 = "EV_HTTP2";
+
+    //Maximum gets and lists, and writes, per second to the API server. The rates are halved when the API server throttles
+    //requests or responds slower than the latency target, and recover while it is healthy. With 0, the default, requests
+    //are only paced from when the API server throttles them until it has recovered, and latency is ignored.
+    public static final String API_READS_PER_SECOND = "EV_API_READS_PER_SECOND";
+
+    public static final String API_WRITES_PER_SECOND = "EV_API_WRITES_PER_SECOND";
+
+    public static final String API_LATENCY_TARGET_MILLIS = "EV_API_LATENCY_TARGET_MILLIS";
+
+    //How often everything in the caches is reconciled again, 0 to never. The work is spread over the period in slices.
+    public static final String RESYNC_PERIOD_SECONDS = "EV_RESYNC_PERIOD_SECONDS";
+
+    public static final String RESYNC_SLICES = "EV_RESYNC_SLICES";
+
+    //How long the ConfigMaps for a target must be quiet before the target is reconciled, 0 (the default) to reconcile
+    //each ConfigMap as soon as it changes. A target is never held back for longer than the max wait.
+    public static final String BATCH_WINDOW_MILLIS = "EV_BATCH_WINDOW_MILLIS";
+
+    public static final String BATCH_MAX_WAIT_MILLIS = "EV_BATCH_MAX_WAIT_MILLIS";
+
+    //Targets of ConfigMap changes that may be updated, and rolling out, at once. 0 to update every target straight away.
+    public static final String ROLLOUT_MAX_CONCURRENT = "EV_ROLLOUT_MAX_CONCURRENT";
+
+    //true to wait for a target's rollout to finish, or the timeout to pass, before updating another
+    public static final String ROLLOUT_WAIT_READY = "EV_ROLLOUT_WAIT_READY";
+
+    public static final String ROLLOUT_TIMEOUT_SECONDS = "EV_ROLLOUT_TIMEOUT_SECONDS";
+
+    //Port that Prometheus metrics are served on, 0 (the default) to not serve them
+    public static final String METRICS_PORT = "EV_METRICS_PORT";
+
+    //Label and field selectors limiting the Deployments and DeploymentConfigs that are watched, unset to watch them all
+    public static final String WORKLOAD_SELECTOR = "EV_WORKLOAD_SELECTOR";
+
+    public static final String WORKLOAD_FIELD_SELECTOR = "EV_WORKLOAD_FIELD_SELECTOR";
+
+    //File recording the workloads as they were last reconciled, so that a restart skips the ones that haven't changed.
+    //Unset to reconcile everything on every start.
+    public static final String CHECKPOINT_FILE = "EV_CHECKPOINT_FILE";
+
+    //Set by Kubernetes to the name of the pod
+    private static final String HOSTNAME = "HOSTNAME";
+
+    private final WorkloadWriter.Mode writeMode;
+
+    private final int writeAttempts;
+
+    private final List<String> namespaces = new ArrayList<>();
+
+    private final int workers;
+
+    private final boolean virtualThreads;
+
+    private final int maxInFlight;
+
+    private final boolean leaderElection;
+
+    private final String leaderElectionNamespace;
+
+    private final String leaderElectionName;
+
+    private final long leaseDurationSeconds;
+
+    private final long renewDeadlineSeconds;
+
+    private final long retryPeriodSeconds;
+
+    private final boolean sharding;
+
+    private final ShardCoordinator.ShardBy shardBy;
+
+    private final String shardGroup;
+
+    private final String shardNamespace;
+
+    private final int httpMaxIdleConnections;
+
+    private final long httpKeepAliveSeconds;
+
+    private final int httpMaxRequests;
+
+    private final int httpMaxRequestsPerHost;
+
+    private final boolean http2;
+
+    private final double apiReadsPerSecond;
+
+    private final double apiWritesPerSecond;
+
+    private final long apiLatencyTargetMillis;
+
+    private final long resyncPeriodSeconds;
+
+    private final int resyncSlices;
+
+    private final long batchWindowMillis;
+
+    private final long batchMaxWaitMillis;
+
+    private final int rolloutMaxConcurrent;
+
+    private final boolean rolloutWaitReady;
+
+    private final long rolloutTimeoutSeconds;
+
+    private final int metricsPort;
+
+    private final String workloadSelector;
+
+    private final String workloadFieldSelector;
+
+    private final String checkpointFile;
+
+    private final String identity;
+
+    private OperatorConfig(Map<String, String> env) {
+        writeMode = WorkloadWriter.Mode.valueOf(env.getOrDefault(WRITE_MODE, "patch").toUpperCase());
+        writeAttempts = Integer.parseInt(env.getOrDefault(WRITE_ATTEMPTS, "5"));
+        for (String namespace : env.getOrDefault(NAMESPACES, "").split(",")) {
+            if (!namespace.trim().isEmpty()) {
+                namespaces.add(namespace.trim());
+            }
+        }
+        virtualThreads = Boolean.parseBoolean(env.getOrDefault(VIRTUAL_THREADS, "false"));
+        workers = Integer.parseInt(env.getOrDefault(WORKERS, virtualThreads ? "1024" : String.valueOf(Runtime.getRuntime().availableProcessors())));
+        maxInFlight = Integer.parseInt(env.getOrDefault(MAX_IN_FLIGHT, virtualThreads ? "64" : String.valueOf(workers)));
+        leaderElection = Boolean.parseBoolean(env.getOrDefault(LEADER_ELECTION, "false"));
+        leaderElectionNamespace = env.get(LEADER_ELECTION_NAMESPACE);
+        leaderElectionName = env.getOrDefault(LEADER_ELECTION_NAME, "environment-variable-operator-leader");
+        leaseDurationSeconds = Long.parseLong(env.getOrDefault(LEASE_DURATION_SECONDS, "15"));
+        renewDeadlineSeconds = Long.parseLong(env.getOrDefault(RENEW_DEADLINE_SECONDS, "10"));
+        retryPeriodSeconds = Long.parseLong(env.getOrDefault(RETRY_PERIOD_SECONDS, "2"));
+        sharding = Boolean.parseBoolean(env.getOrDefault(SHARDING, "false"));
+        shardBy = ShardCoordinator.ShardBy.valueOf(env.getOrDefault(SHARD_BY, "namespace").toUpperCase());
+        shardGroup = env.getOrDefault(SHARD_GROUP, "environment-variable-operator");
+        shardNamespace = env.get(SHARD_NAMESPACE);
+        httpMaxIdleConnections = Integer.parseInt(env.getOrDefault(HTTP_MAX_IDLE_CONNECTIONS, "5"));
+        httpKeepAliveSeconds = Long.parseLong(env.getOrDefault(HTTP_KEEP_ALIVE_SECONDS, "300"));
+        httpMaxRequests = Integer.parseInt(env.getOrDefault(HTTP_MAX_REQUESTS, "64"));
+        httpMaxRequestsPerHost = Integer.parseInt(env.getOrDefault(HTTP_MAX_REQUESTS_PER_HOST, "64"));
+        http2 = Boolean.parseBoolean(env.getOrDefault(HTTP2, "true"));
+        apiReadsPerSecond = Double.parseDouble(env.getOrDefault(API_READS_PER_SECOND, "0"));
+        apiWritesPerSecond = Double.parseDouble(env.getOrDefault(API_WRITES_PER_SECOND, "0"));
+        apiLatencyTargetMillis = Long.parseLong(env.getOrDefault(API_LATENCY_TARGET_MILLIS, "1000"));
+        resyncPeriodSeconds = Long.parseLong(env.getOrDefault(RESYNC_PERIOD_SECONDS, "600"));
+        resyncSlices = Integer.parseInt(env.getOrDefault(RESYNC_SLICES, "60"));
+        batchWindowMillis = Long.parseLong(env.getOrDefault(BATCH_WINDOW_MILLIS, "0"));
+        batchMaxWaitMillis = Long.parseLong(env.getOrDefault(BATCH_MAX_WAIT_MILLIS, "5000"));
+        rolloutMaxConcurrent = Integer.parseInt(env.getOrDefault(ROLLOUT_MAX_CONCURRENT, "0"));
+        rolloutWaitReady = Boolean.parseBoolean(env.getOrDefault(ROLLOUT_WAIT_READY, "true"));
+        rolloutTimeoutSeconds = Long.parseLong(env.getOrDefault(ROLLOUT_TIMEOUT_SECONDS, "600"));
+        metricsPort = Integer.parseInt(env.getOrDefault(METRICS_PORT, "0"));
+        workloadSelector = env.get(WORKLOAD_SELECTOR);
+        workloadFieldSelector = env.get(WORKLOAD_FIELD_SELECTOR);
+        checkpointFile = env.get(CHECKPOINT_FILE);
+        identity = env.getOrDefault(HOSTNAME, UUID.randomUUID().toString());
+    }
+
+    public static OperatorConfig fromEnv() {
+        return fromMap(System.getenv());
+    }
+
+    public static OperatorConfig fromMap(Map<String, String> env) {
+        return new OperatorConfig(env);
+    }
+
+    public WorkloadWriter.Mode getWriteMode() {
+        return writeMode;
+    }
+
+    public int getWriteAttempts() {
+        return writeAttempts;
+    }
+
+    /**
+     * @return The namespaces to watch, or an empty list to watch the namespace of the client
+     */
+    public List<String> getNamespaces() {
+        return namespaces;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public boolean isLeaderElection() {
+        return leaderElection;
+    }
+
+    /**
+     * @return The namespace of the leader lease, or null to use the namespace of the client
+     */
+    public String getLeaderElectionNamespace() {
+        return leaderElectionNamespace;
+    }
+
+    public String getLeaderElectionName() {
+        return leaderElectionName;
+    }
+
+    public long getLeaseDurationSeconds() {
+        return leaseDurationSeconds;
+    }
+
+    public long getRenewDeadlineSeconds() {
+        return renewDeadlineSeconds;
+    }
+
+    public long getRetryPeriodSeconds() {
+        return retryPeriodSeconds;
+    }
+
+    public boolean isSharding() {
+        return sharding;
+    }
+
+    public ShardCoordinator.ShardBy getShardBy() {
+        return shardBy;
+    }
+
+    public String getShardGroup() {
+        return shardGroup;
+    }
+
+    /**
+     * @return The namespace of the membership ConfigMaps, or null to use the namespace of the client
+     */
+    public String getShardNamespace() {
+        return shardNamespace;
+    }
+
+    public int getHttpMaxIdleConnections() {
+        return httpMaxIdleConnections;
+    }
+
+    public long getHttpKeepAliveSeconds() {
+        return httpKeepAliveSeconds;
+    }
+
+    public int getHttpMaxRequests() {
+        return httpMaxRequests;
+    }
+
+    public int getHttpMaxRequestsPerHost() {
+        return httpMaxRequestsPerHost;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public double getApiReadsPerSecond() {
+        return apiReadsPerSecond;
+    }
+
+    public double getApiWritesPerSecond() {
+        return apiWritesPerSecond;
+    }
+
+    public long getApiLatencyTargetMillis() {
+        return apiLatencyTargetMillis;
+    }
+
+    public long getResyncPeriodSeconds() {
+        return resyncPeriodSeconds;
+    }
+
+    public int getResyncSlices() {
+        return resyncSlices;
+    }
+
+    public long getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+    public long getBatchMaxWaitMillis() {
+        return batchMaxWaitMillis;
+    }
+
+    public int getRolloutMaxConcurrent() {
+        return rolloutMaxConcurrent;
+    }
+
+    public boolean isRolloutWaitReady() {
+        return rolloutWaitReady;
+    }
+
+    public long getRolloutTimeoutSeconds() {
+        return rolloutTimeoutSeconds;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return Label selector for the workloads to watch, or null to watch them all
+     */
+    public String getWorkloadSelector() {
+        return workloadSelector;
+    }
+
+    /**
+     * @return Field selector for the workloads to watch, or null to watch them all
+     */
+    public String getWorkloadFieldSelector() {
+        return workloadFieldSelector;
+    }
+
+    /**
+     * @return Path of the checkpoint file, or null to not keep one
+     */
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * @return Identity of this replica, the pod name when running in Kubernetes
+     */
+    public String getIdentity() {
+        return identity;
+    }
+
+    @Override
+    public String toString() {
+        return "OperatorConfig{writeMode=" + writeMode + ", writeAttempts=" + writeAttempts
+                + ", namespaces=" + namespaces + ", workers=" + workers + (virtualThreads ? " (virtual)" : "") + ", maxInFlight=" + maxInFlight + ", leaderElection=" + leaderElection
+                + ", sharding=" + sharding + (sharding ? ", shardBy=" + shardBy + ", shardGroup=" + shardGroup : "")
+                + ", resyncPeriodSeconds=" + resyncPeriodSeconds + ", batchWindowMillis=" + batchWindowMillis
+                + (rolloutMaxConcurrent > 0 ? ", rolloutMaxConcurrent=" + rolloutMaxConcurrent + ", rolloutWaitReady=" + rolloutWaitReady : "") + ", metricsPort=" + metricsPort
+                + (workloadSelector != null ? ", workloadSelector=" + workloadSelector : "") + (workloadFieldSelector != null ? ", workloadFieldSelector=" + workloadFieldSelector : "")
+                + (checkpointFile != null ? ", checkpointFile=" + checkpointFile : "") + ", identity=" + identity + "}";
+    }
+}
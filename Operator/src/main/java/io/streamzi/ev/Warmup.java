@@ -0,0 +1,132 @@
+package io.streamzi.ev;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.ObjectMetaBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.api.model.DeploymentConfigBuilder;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.metrics.Metrics;
+import io.streamzi.ev.operator.EnvDiff;
+import io.streamzi.ev.operator.EnvOwnership;
+import io.streamzi.ev.operator.LabelSelector;
+import io.streamzi.ev.operator.TargetResolver;
+import io.streamzi.ev.operator.Util;
+import io.streamzi.ev.operator.Workload;
+import org.apache.logging.log4j.LogManager;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the classes that the operator needs to start and reconcile, without connecting to a cluster, then exits.
+ * <p>
+ * Run by the appcds profile to record the classes for a class data sharing archive, and with the native-image agent
+ * to check the reflection configuration of the native profile.
+ */
+public class Warmup {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(Warmup.class);
+
+    private static final String NAMESPACE = "warmup";
+
+    public static void main(String[] args) throws Exception {
+
+        final OperatorConfig config = OperatorConfig.fromMap(Collections.emptyMap());
+        logger.info(config);
+
+        //Building the client loads OkHttp and the DSL without making a request. DeploymentConfigs would check the API groups.
+        try (OpenShiftClient client = ClientFactory.create(config)) {
+            client.configMaps().inNamespace(NAMESPACE).withLabel(Util.KIND_LABEL, Util.KIND_VALUE);
+            client.extensions().deployments().inNamespace(NAMESPACE);
+        }
+
+        final ConfigMap configMap = new ConfigMapBuilder()
+                .withMetadata(metadata("app.cm", Collections.singletonMap(Util.TARGET_LABEL, "app")))
+                .addToData("kafka.bootstrap.servers", "my-cluster-kafka:9092")
+                .build();
+        configMap.getMetadata().getLabels().put(Util.KIND_LABEL, Util.KIND_VALUE);
+
+        final Container container = new ContainerBuilder().withName("app").withImage("app:latest").build();
+        final Deployment deployment = new DeploymentBuilder()
+                .withMetadata(metadata("app", Collections.singletonMap("app", "app")))
+                .withNewSpec().withNewTemplate().withNewSpec().withContainers(container).endSpec().endTemplate().endSpec()
+                .build();
+        final DeploymentConfig deploymentConfig = new DeploymentConfigBuilder()
+                .withMetadata(metadata("app", Collections.singletonMap("app", "app")))
+                .withNewSpec().withNewTemplate().withNewSpec().withContainers(container).endSpec().endTemplate().endSpec()
+                .build();
+
+        //The same JSON handling as the lists, watch events and patch responses
+        final ConfigMap readConfigMap = roundTrip(configMap);
+        final Deployment readDeployment = roundTrip(deployment);
+        final DeploymentConfig readDeploymentConfig = roundTrip(deploymentConfig);
+        Serialization.unmarshal("{\"type\":\"MODIFIED\",\"object\":" + Serialization.asJson(deployment) + "}", WatchEvent.class);
+
+        final ResourceCache<ConfigMap> configMaps = new ResourceCache<>();
+        configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+        configMaps.addIndex(TargetResolver.SELECTOR_INDEX, TargetResolver::getSelectorKey);
+        configMaps.replace(Collections.singletonList(readConfigMap));
+
+        final ResourceCache<DeploymentConfig> deploymentConfigs = new ResourceCache<>();
+        deploymentConfigs.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        deploymentConfigs.replace(Collections.singletonList(readDeploymentConfig));
+
+        final ResourceCache<Deployment> deployments = new ResourceCache<>();
+        deployments.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        deployments.replace(Collections.singletonList(readDeployment));
+
+        //What a reconcile does to a copy of the workload before writing it
+        final TargetResolver resolver = new TargetResolver(configMaps, deploymentConfigs, deployments);
+        apply(Workload.DEPLOYMENT, readDeployment, resolver.getConfigMaps(readDeployment));
+        apply(Workload.DEPLOYMENT_CONFIG, readDeploymentConfig, resolver.getConfigMaps(readDeploymentConfig));
+        LabelSelector.parse("app in (app),tier!=frontend").matches(readDeployment.getMetadata().getLabels());
+
+        Metrics.queueDepth(() -> 0);
+
+        logger.info("Warmed up in " + ManagementFactory.getRuntimeMXBean().getUptime() + "ms");
+    }
+
+    private static ObjectMeta metadata(String name, Map<String, String> labels) {
+        return new ObjectMetaBuilder()
+                .withName(name)
+                .withNamespace(NAMESPACE)
+                .withResourceVersion("1")
+                .withLabels(new HashMap<>(labels))
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends HasMetadata> T roundTrip(T resource) throws Exception {
+        return (T) Serialization.unmarshal(Serialization.asJson(resource), resource.getClass());
+    }
+
+    private static <T extends HasMetadata> void apply(Workload<T> workload, T current, List<ConfigMap> cms) {
+        final T copy = workload.copy(current);
+        final EnvOwnership ownership = EnvOwnership.of(copy);
+        final List<String> names = new ArrayList<>();
+        for (ConfigMap cm : cms) {
+            ownership.record(cm.getMetadata().getName(), EnvDiff.of(cm));
+            names.add(cm.getMetadata().getName());
+        }
+        for (Container container : workload.getContainers(copy)) {
+            ownership.removeStale(container, names);
+        }
+        EnvDiff.of(cms).apply(workload.getContainers(copy));
+        ownership.writeTo(copy);
+        Serialization.jsonMapper().valueToTree(workload.getContainers(copy));
+    }
+}
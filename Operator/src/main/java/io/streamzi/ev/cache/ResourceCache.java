@@ -0,0 +1,210 @@
+package io.streamzi.ev.cache;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.Watcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * In-memory copy of the resources of one kind. Primed with a single list call when the operator starts and then kept
+ * up to date from the watch stream so that the operators can look resources up without calling the API server.
+ * <p>
+ * The cached objects are shared. Callers that want to modify a resource must take a copy first.
+ * <p>
+ * Secondary indexes can be registered with {@link #addIndex(String, Function)} or
+ * {@link #addMultiIndex(String, Function)} to find resources by something other than their name without scanning the
+ * whole cache.
+ */
+public class ResourceCache<T extends HasMetadata> {
+
+    private final ConcurrentMap<String, T> store = new ConcurrentHashMap<>();
+
+    //Index name -> index
+    private final ConcurrentMap<String, Index<T>> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Key used to store a resource.
+     *
+     * @param namespace Namespace of the resource
+     * @param name      Name of the resource
+     * @return namespace/name
+     */
+    public static String key(String namespace, String name) {
+        return namespace + "/" + name;
+    }
+
+    public static String key(HasMetadata resource) {
+        return key(resource.getMetadata().getNamespace(), resource.getMetadata().getName());
+    }
+
+    /**
+     * Register a secondary index. Must be called before the cache is populated.
+     *
+     * @param indexName Name used to query the index with {@link #byIndex(String, String)}
+     * @param indexKey  Function returning the index value of a resource, or null if the resource should not be indexed
+     */
+    public void addIndex(String indexName, Function<T, String> indexKey) {
+        indexes.put(indexName, new Index<>(resource -> {
+            final String value = indexKey.apply(resource);
+            return value != null ? Collections.singletonList(value) : Collections.emptyList();
+        }));
+    }
+
+    /**
+     * Register a secondary index where a resource can have several index values, e.g. one for each of its labels.
+     * Must be called before the cache is populated.
+     *
+     * @param indexName Name used to query the index with {@link #byIndex(String, String)}
+     * @param indexKeys Function returning the index values of a resource
+     */
+    public void addMultiIndex(String indexName, Function<T, Collection<String>> indexKeys) {
+        indexes.put(indexName, new Index<>(indexKeys));
+    }
+
+    /**
+     * Replace the contents of the cache with the result of a list call.
+     *
+     * @param items All of the resources returned by the list
+     */
+    public synchronized void replace(List<T> items) {
+        final Set<String> listed = new HashSet<>();
+        for (T item : items) {
+            final String key = key(item);
+            listed.add(key);
+            put(key, item);
+        }
+        for (String key : new ArrayList<>(store.keySet())) {
+            if (!listed.contains(key)) {
+                remove(key);
+            }
+        }
+    }
+
+    /**
+     * Apply an event from the watch stream to the cache.
+     *
+     * @param action   Action received by the Watcher
+     * @param resource Resource received by the Watcher
+     * @return The version of the resource held before the event, or null if there wasn't one
+     */
+    public synchronized T apply(Watcher.Action action, T resource) {
+        switch (action) {
+            case ADDED:
+            case MODIFIED:
+                return put(key(resource), resource);
+            case DELETED:
+                return remove(key(resource));
+            default:
+                return null;
+        }
+    }
+
+    public T get(String namespace, String name) {
+        return store.get(key(namespace, name));
+    }
+
+    /**
+     * @return All of the cached resources
+     */
+    public List<T> list() {
+        return new ArrayList<>(store.values());
+    }
+
+    /**
+     * @param namespace Namespace to look in
+     * @return All of the cached resources in the namespace
+     */
+    public List<T> list(String namespace) {
+        final String prefix = namespace + "/";
+        final List<T> items = new ArrayList<>();
+        for (Map.Entry<String, T> entry : store.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                items.add(entry.getValue());
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @param indexName Name of an index registered with {@link #addIndex(String, Function)}
+     * @param value     Index value to look up
+     * @return The cached resources with that index value
+     */
+    public List<T> byIndex(String indexName, String value) {
+        final Set<String> keys = indexes.get(indexName).keys(value);
+        final List<T> items = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            final T item = store.get(key);
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    private T put(String key, T resource) {
+        final T previous = store.put(key, resource);
+        for (Index<T> index : indexes.values()) {
+            index.remove(key, previous);
+            index.add(key, resource);
+        }
+        return previous;
+    }
+
+    private T remove(String key) {
+        final T previous = store.remove(key);
+        for (Index<T> index : indexes.values()) {
+            index.remove(key, previous);
+        }
+        return previous;
+    }
+
+    /*
+     * Index value -> keys of the resources with that value
+     */
+    private static class Index<T> {
+
+        private final Function<T, Collection<String>> indexKeys;
+
+        private final ConcurrentMap<String, Set<String>> entries = new ConcurrentHashMap<>();
+
+        Index(Function<T, Collection<String>> indexKeys) {
+            this.indexKeys = indexKeys;
+        }
+
+        void add(String key, T resource) {
+            for (String value : indexKeys.apply(resource)) {
+                entries.computeIfAbsent(value, v -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+
+        void remove(String key, T resource) {
+            if (resource == null) {
+                return;
+            }
+            for (String value : indexKeys.apply(resource)) {
+                entries.computeIfPresent(value, (v, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+        }
+
+        Set<String> keys(String value) {
+            return entries.getOrDefault(value, Collections.emptySet());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package io.streamzi.ev.checkpoint;
+
+import org.apache.logging.log4j.LogManager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fingerprints of the workloads as they were when they were last reconciled, kept in an append-only file so that they
+ * survive a restart of the operator.
+ * <p>
+ * A reconcile compares the workload's fingerprint with the recorded one and skips the workload if nothing that decides
+ * its Environment Variables has changed. After a restart that means only the workloads that changed while the operator
+ * was down are diffed and written.
+ * <p>
+ * Each line of the file is a fingerprint and a key, or - and a key once the workload has been deleted. The last line
+ * for a key wins. The file is rewritten with only the live records when it is opened and whenever it has grown to
+ * several times their number. Lines are buffered until {@link #flush()}, so a crash loses the most recent records and
+ * those workloads are reconciled again.
+ */
+public class Checkpoint implements Closeable {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(Checkpoint.class);
+
+    //FNV-1a, which gives the same fingerprint in every JVM
+    public static final long SEED = 0xcbf29ce484222325L;
+
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final String DELETED = "-";
+
+    //Rewrite the file once it has this many times more lines than there are records, and at least the minimum
+    private static final int COMPACT_RATIO = 4;
+
+    private static final int MIN_COMPACT_LINES = 10000;
+
+    private final Path file;
+
+    //kind/namespace/name -> fingerprint
+    private final ConcurrentMap<String, Long> fingerprints = new ConcurrentHashMap<>();
+
+    private final AtomicLong unchanged = new AtomicLong();
+
+    private BufferedWriter writer;
+
+    private int lines;
+
+    private Checkpoint(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the records from the file, creating it if it doesn't exist
+     *
+     * @param file e.g. /var/lib/ev/checkpoint
+     * @return The checkpoint, ready to record to
+     */
+    public static Checkpoint open(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        final Checkpoint checkpoint = new Checkpoint(file);
+        checkpoint.load();
+        checkpoint.compact();
+        logger.info("Loaded " + checkpoint.fingerprints.size() + " workload fingerprints from " + file);
+        return checkpoint;
+    }
+
+    /**
+     * @param hash  Hash so far, starting with {@link #SEED}
+     * @param value Value to add, may be null
+     * @return The combined hash
+     */
+    public static long hash(long hash, String value) {
+        if (value == null) {
+            return hash(hash, -1L);
+        }
+        //The length keeps "ab","c" apart from "a","bc"
+        long h = hash(hash, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * PRIME;
+        }
+        return h;
+    }
+
+    public static long hash(long hash, long value) {
+        long h = hash;
+        for (int shift = 0; shift < 64; shift += 8) {
+            h = (h ^ ((value >>> shift) & 0xff)) * PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * @param key         kind/namespace/name of the workload
+     * @param fingerprint Fingerprint of the workload now
+     * @return true if it is the fingerprint recorded after the last reconcile
+     */
+    public boolean isUnchanged(String key, long fingerprint) {
+        final Long recorded = fingerprints.get(key);
+        if (recorded != null && recorded == fingerprint) {
+            unchanged.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record the fingerprint of a workload that has just been reconciled
+     */
+    public synchronized void record(String key, long fingerprint) {
+        final Long previous = fingerprints.put(key, fingerprint);
+        if (previous == null || previous != fingerprint) {
+            append(Long.toHexString(fingerprint), key);
+        }
+    }
+
+    /**
+     * Forget a workload once it has been deleted
+     */
+    public synchronized void forget(String key) {
+        if (fingerprints.remove(key) != null) {
+            append(DELETED, key);
+        }
+    }
+
+    /**
+     * Write the buffered records to the file. Schedule every few seconds.
+     */
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            logger.warn("Unable to write to checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{workloads=" + fingerprints.size() + ", unchanged=" + unchanged.get() + "}";
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                final String value = line.substring(0, space);
+                final String key = line.substring(space + 1);
+                if (value.equals(DELETED)) {
+                    fingerprints.remove(key);
+                    continue;
+                }
+                try {
+                    fingerprints.put(key, Long.parseUnsignedLong(value, 16));
+                } catch (NumberFormatException e) {
+                    //The last line is cut short if the operator was killed while writing it
+                    logger.debug("Ignoring checkpoint line '" + line + "'");
+                }
+            }
+        }
+    }
+
+    private void append(String value, String key) {
+        try {
+            writer.write(value);
+            writer.write(' ');
+            writer.write(key);
+            writer.newLine();
+            if (++lines > MIN_COMPACT_LINES && lines > COMPACT_RATIO * fingerprints.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write to checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * Replace the file with one line per record, then carry on appending to the new file. If the file can't be replaced
+     * the current writer is kept, so the records still go somewhere.
+     */
+    private void compact() throws IOException {
+        final Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        final BufferedWriter appender;
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : fingerprints.entrySet()) {
+                    out.write(Long.toHexString(entry.getValue()));
+                    out.write(' ');
+                    out.write(entry.getKey());
+                    out.newLine();
+                }
+            }
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            appender = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(compacted);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            //Try again once there are another MIN_COMPACT_LINES, rather than on every record
+            lines = 0;
+            throw e;
+        }
+
+        //The old writer's buffered lines are already in the compacted file
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close the replaced checkpoint: " + e.getMessage());
+            }
+        }
+        writer = appender;
+        lines = fingerprints.size();
+    }
+}
@@ -0,0 +1,286 @@
+package io.streamzi.ev.election;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.streamzi.ev.ratelimit.RateLimitInterceptor;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lease based leader election so that several replicas of the operator can run with only one of them reconciling.
+ * <p>
+ * The lease is held in an annotation on a ConfigMap using the same record as client-go's ConfigMap lock. The leader
+ * renews the lease every retry period. A candidate takes over once it has seen the same resourceVersion of the lock
+ * for longer than the lease duration. Every renewal changes the resourceVersion, even one that leaves the record as it
+ * was because it came within the same second. Expiry is judged on the candidate's own clock so clock skew between
+ * replicas does not matter. Every update uses the resourceVersion it read so that only one candidate can win.
+ */
+public class LeaderElector implements Runnable {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(LeaderElector.class);
+
+    public static final String LEADER_ANNOTATION = "control-plane.alpha.kubernetes.io/leader";
+
+    private static final int HTTP_CONFLICT = 409;
+
+    private final OpenShiftClient osClient;
+
+    private final String namespace;
+
+    private final String name;
+
+    private final String identity;
+
+    private final long leaseDurationMillis;
+
+    private final long renewDeadlineMillis;
+
+    private final long retryPeriodMillis;
+
+    private final Runnable onStartedLeading;
+
+    private final Runnable onStoppedLeading;
+
+    private volatile boolean leader;
+
+    //Last resourceVersion read from the lock and when we first saw it (System.nanoTime)
+    private String observedVersion;
+
+    private long observedTime;
+
+    //When we last renewed the lease successfully (System.nanoTime)
+    private long renewTime;
+
+    private long transitions;
+
+    /**
+     * @param osClient         Client to access the lock with
+     * @param namespace        Namespace of the lock ConfigMap
+     * @param name             Name of the lock ConfigMap
+     * @param identity         Unique identity of this replica, normally the pod name
+     * @param leaseDuration    How long a lease lasts without being renewed
+     * @param renewDeadline    How long the leader keeps trying to renew before it gives up leadership
+     * @param retryPeriod      How often to try to acquire or renew the lease
+     * @param onStartedLeading Called when this replica becomes the leader
+     * @param onStoppedLeading Called when this replica stops being the leader
+     */
+    public LeaderElector(OpenShiftClient osClient, String namespace, String name, String identity,
+                         long leaseDuration, long renewDeadline, long retryPeriod, TimeUnit unit,
+                         Runnable onStartedLeading, Runnable onStoppedLeading) {
+        this.osClient = osClient;
+        this.namespace = namespace;
+        this.name = name;
+        this.identity = identity;
+        this.leaseDurationMillis = unit.toMillis(leaseDuration);
+        this.renewDeadlineMillis = unit.toMillis(renewDeadline);
+        this.retryPeriodMillis = unit.toMillis(retryPeriod);
+        this.onStartedLeading = onStartedLeading;
+        this.onStoppedLeading = onStoppedLeading;
+    }
+
+    /**
+     * Thread that takes part in the election until interrupted
+     */
+    @Override
+    public void run() {
+        logger.info("Starting leader election as " + identity + " using ConfigMap " + namespace + "/" + name);
+
+        //The lease must be renewed on time however much the reconciles are being slowed down
+        RateLimitInterceptor.exemptCurrentThread();
+
+        while (!Thread.currentThread().isInterrupted()) {
+
+            boolean held;
+            try {
+                held = tryAcquireOrRenew();
+            } catch (KubernetesClientException e) {
+                logger.warn("Failed to acquire or renew the lease: " + e.getMessage());
+                held = false;
+            }
+
+            if (held) {
+                renewTime = System.nanoTime();
+                if (!leader) {
+                    leader = true;
+                    transitions++;
+                    logger.info(identity + " is now the leader");
+                    onStartedLeading.run();
+                }
+            } else if (leader && elapsedMillis(renewTime) > renewDeadlineMillis) {
+                leader = false;
+                logger.warn(identity + " failed to renew the lease within " + renewDeadlineMillis + "ms and is no longer the leader");
+                onStoppedLeading.run();
+            }
+
+            try {
+                Thread.sleep(retryPeriodMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (leader) {
+            leader = false;
+            onStoppedLeading.run();
+        }
+        logger.info("Stopped leader election");
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return Number of times this replica has become the leader
+     */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /*
+     * Returns true if we hold the lease when this returns
+     */
+    private boolean tryAcquireOrRenew() {
+
+        final String now = timestamp();
+        final ConfigMap lock = osClient.configMaps().inNamespace(namespace).withName(name).get();
+
+        if (lock == null) {
+            final LeaderElectionRecord record = new LeaderElectionRecord(identity, leaseDurationMillis, now, now, 0);
+            try {
+                osClient.configMaps().inNamespace(namespace).create(new ConfigMapBuilder()
+                        .withNewMetadata()
+                        .withName(name)
+                        .withNamespace(namespace)
+                        .addToAnnotations(LEADER_ANNOTATION, record.toJson())
+                        .endMetadata()
+                        .build());
+                return true;
+            } catch (KubernetesClientException e) {
+                if (e.getCode() == HTTP_CONFLICT) {
+                    //Another replica created it first
+                    return false;
+                }
+                throw e;
+            }
+        }
+
+        final String raw = lock.getMetadata().getAnnotations() != null ? lock.getMetadata().getAnnotations().get(LEADER_ANNOTATION) : null;
+        final LeaderElectionRecord current = raw != null ? LeaderElectionRecord.fromJson(raw) : null;
+
+        final String version = lock.getMetadata().getResourceVersion();
+        if (version == null || !version.equals(observedVersion)) {
+            observedVersion = version;
+            observedTime = System.nanoTime();
+        }
+
+        final boolean heldByUs = current != null && identity.equals(current.holderIdentity);
+
+        //Somebody else holds an unexpired lease
+        if (current != null && !heldByUs && current.holderIdentity != null && elapsedMillis(observedTime) < leaseDurationMillis) {
+            return false;
+        }
+
+        final LeaderElectionRecord updated;
+        if (heldByUs) {
+            updated = new LeaderElectionRecord(identity, leaseDurationMillis, current.acquireTime, now, current.leaderTransitions);
+        } else {
+            if (current != null) {
+                logger.info("Lease held by " + current.holderIdentity + " has not been renewed for " + elapsedMillis(observedTime) + "ms, taking over");
+            }
+            updated = new LeaderElectionRecord(identity, leaseDurationMillis, now, now, current != null ? current.leaderTransitions + 1 : 0);
+        }
+
+        final ConfigMap replacement = new ConfigMapBuilder(lock)
+                .editMetadata()
+                .addToAnnotations(LEADER_ANNOTATION, updated.toJson())
+                .endMetadata()
+                .build();
+
+        try {
+            final ConfigMap written = osClient.configMaps().inNamespace(namespace).withName(name)
+                    .lockResourceVersion(lock.getMetadata().getResourceVersion())
+                    .replace(replacement);
+            observedVersion = written.getMetadata().getResourceVersion();
+            observedTime = System.nanoTime();
+            return true;
+        } catch (KubernetesClientException e) {
+            if (e.getCode() == HTTP_CONFLICT) {
+                //Somebody else updated the lock since we read it
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static long elapsedMillis(long since) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    private static String timestamp() {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+
+    /*
+     * The record stored in the lock annotation. Field names match client-go so that kubectl users recognise it.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class LeaderElectionRecord {
+
+        private static final ObjectMapper mapper = Serialization.jsonMapper();
+
+        public String holderIdentity;
+
+        public long leaseDurationSeconds;
+
+        public String acquireTime;
+
+        public String renewTime;
+
+        public long leaderTransitions;
+
+        LeaderElectionRecord() {
+        }
+
+        LeaderElectionRecord(String holderIdentity, long leaseDurationMillis, String acquireTime, String renewTime, long leaderTransitions) {
+            this.holderIdentity = holderIdentity;
+            this.leaseDurationSeconds = TimeUnit.MILLISECONDS.toSeconds(leaseDurationMillis);
+            this.acquireTime = acquireTime;
+            this.renewTime = renewTime;
+            this.leaderTransitions = leaderTransitions;
+        }
+
+        String toJson() {
+            try {
+                return mapper.writeValueAsString(this);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static LeaderElectionRecord fromJson(String json) {
+            try {
+                return mapper.readValue(json, LeaderElectionRecord.class);
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable leader election record: " + json);
+                return new LeaderElectionRecord();
+            }
+        }
+    }
+}
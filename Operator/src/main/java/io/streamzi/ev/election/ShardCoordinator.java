@@ -0,0 +1,220 @@
+package io.streamzi.ev.election;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.streamzi.ev.ratelimit.RateLimitInterceptor;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Splits the reconcile work between several active replicas of the operator.
+ * <p>
+ * Each replica heartbeats a ConfigMap of its own, labelled with the operator group, and lists the ConfigMaps of the
+ * other replicas to learn the membership. A member is alive while its heartbeat keeps changing, judged on the local
+ * clock. The live members are placed on a consistent {@link HashRing} and each replica only reconciles the shard keys
+ * that the ring assigns to it. When a member joins or leaves the ring is rebuilt and only the keys next to that
+ * member's points change owner.
+ * <p>
+ * Until the first membership refresh the ring is empty and nothing is owned. The first refresh then hands every owned
+ * key to onRebalance, so that the workloads that were listed before the replica knew its shard are reconciled.
+ */
+public class ShardCoordinator implements Runnable {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(ShardCoordinator.class);
+
+    public static final String GROUP_LABEL = "streamzi.io/operator-group";
+
+    public static final String MEMBER_ANNOTATION = "streamzi.io/operator-member";
+
+    public static final String HEARTBEAT_ANNOTATION = "streamzi.io/heartbeat";
+
+    /**
+     * What the work is split by
+     */
+    public enum ShardBy {
+        //Every workload in a namespace is handled by the same replica
+        NAMESPACE,
+        //Workloads are spread individually using namespace/name
+        TARGET
+    }
+
+    private final OpenShiftClient osClient;
+
+    private final String namespace;
+
+    private final String group;
+
+    private final String identity;
+
+    private final ShardBy shardBy;
+
+    private final long leaseDurationMillis;
+
+    private final long retryPeriodMillis;
+
+    private final Consumer<Predicate<String>> onRebalance;
+
+    //Empty until the membership is first refreshed
+    private volatile HashRing ring = new HashRing(Collections.emptySet());
+
+    //Member -> last heartbeat seen and when we first saw it (System.nanoTime)
+    private final Map<String, String> observedHeartbeats = new HashMap<>();
+
+    private final Map<String, Long> observedTimes = new HashMap<>();
+
+    private long heartbeats;
+
+    /**
+     * @param osClient      Client to access the membership ConfigMaps with
+     * @param namespace     Namespace of the membership ConfigMaps
+     * @param group         Name shared by all of the replicas that split the work
+     * @param identity      Unique identity of this replica, normally the pod name
+     * @param shardBy       What the work is split by
+     * @param leaseDuration How long a member is considered alive without a new heartbeat
+     * @param retryPeriod   How often to heartbeat and refresh the membership
+     * @param onRebalance   Called when the membership changes with a test for the shard keys this replica has gained
+     */
+    public ShardCoordinator(OpenShiftClient osClient, String namespace, String group, String identity, ShardBy shardBy,
+                            long leaseDuration, long retryPeriod, TimeUnit unit,
+                            Consumer<Predicate<String>> onRebalance) {
+        this.osClient = osClient;
+        this.namespace = namespace;
+        this.group = group;
+        this.identity = identity;
+        this.shardBy = shardBy;
+        this.leaseDurationMillis = unit.toMillis(leaseDuration);
+        this.retryPeriodMillis = unit.toMillis(retryPeriod);
+        this.onRebalance = onRebalance;
+    }
+
+    /**
+     * Thread that heartbeats and follows the membership until interrupted
+     */
+    @Override
+    public void run() {
+        logger.info("Joining operator group " + group + " as " + identity + ", sharding by " + shardBy);
+
+        //The heartbeat must be renewed on time however much the reconciles are being slowed down
+        RateLimitInterceptor.exemptCurrentThread();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                heartbeat();
+                refreshMembers();
+            } catch (KubernetesClientException e) {
+                logger.warn("Failed to refresh the operator group membership: " + e.getMessage());
+            }
+
+            try {
+                Thread.sleep(retryPeriodMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        //Leave straight away so that the other members don't have to wait for the lease to expire
+        try {
+            osClient.configMaps().inNamespace(namespace).withName(memberConfigMapName()).delete();
+        } catch (KubernetesClientException e) {
+            logger.warn("Failed to leave the operator group: " + e.getMessage());
+        }
+        logger.info("Left operator group " + group);
+    }
+
+    /**
+     * @param shardKey namespace/name of a workload
+     * @return true if this replica should reconcile the workload
+     */
+    public boolean owns(String shardKey) {
+        return owns(ring, shardKey);
+    }
+
+    /**
+     * @param ring     Ring to check against
+     * @param shardKey namespace/name of a workload
+     * @return true if the ring assigns the workload to this replica
+     */
+    public boolean owns(HashRing ring, String shardKey) {
+        return identity.equals(ring.owner(ringKey(shardKey)));
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    private String ringKey(String shardKey) {
+        if (shardBy == ShardBy.NAMESPACE) {
+            final int slash = shardKey.indexOf('/');
+            return slash < 0 ? shardKey : shardKey.substring(0, slash);
+        }
+        return shardKey;
+    }
+
+    private String memberConfigMapName() {
+        return (group + "-" + identity).toLowerCase();
+    }
+
+    private void heartbeat() {
+        heartbeats++;
+        osClient.configMaps().inNamespace(namespace).createOrReplace(new ConfigMapBuilder()
+                .withNewMetadata()
+                .withName(memberConfigMapName())
+                .withNamespace(namespace)
+                .addToLabels(GROUP_LABEL, group)
+                .addToAnnotations(MEMBER_ANNOTATION, identity)
+                .addToAnnotations(HEARTBEAT_ANNOTATION, System.currentTimeMillis() + "-" + heartbeats)
+                .endMetadata()
+                .build());
+    }
+
+    private void refreshMembers() {
+
+        final long now = System.nanoTime();
+        final Set<String> seen = new HashSet<>();
+        final Set<String> alive = new HashSet<>();
+        alive.add(identity);
+
+        for (ConfigMap cm : osClient.configMaps().inNamespace(namespace).withLabel(GROUP_LABEL, group).list().getItems()) {
+
+            final Map<String, String> annotations = cm.getMetadata().getAnnotations();
+            if (annotations == null || annotations.get(MEMBER_ANNOTATION) == null) {
+                continue;
+            }
+            final String member = annotations.get(MEMBER_ANNOTATION);
+            final String heartbeat = annotations.get(HEARTBEAT_ANNOTATION);
+            seen.add(member);
+
+            if (heartbeat != null && !heartbeat.equals(observedHeartbeats.get(member))) {
+                observedHeartbeats.put(member, heartbeat);
+                observedTimes.put(member, now);
+            }
+
+            final Long observed = observedTimes.get(member);
+            if (observed != null && TimeUnit.NANOSECONDS.toMillis(now - observed) < leaseDurationMillis) {
+                alive.add(member);
+            }
+        }
+
+        observedHeartbeats.keySet().retainAll(seen);
+        observedTimes.keySet().retainAll(seen);
+
+        final HashRing updated = new HashRing(alive);
+        if (!updated.equals(ring)) {
+            final HashRing previous = ring;
+            ring = updated;
+            logger.info("Operator group " + group + " membership changed from " + previous.getMembers() + " to " + updated.getMembers());
+            //Only the keys that have moved to this replica need reconciling, which the first time is all of them
+            onRebalance.accept(shardKey -> owns(updated, shardKey) && !owns(previous, shardKey));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.streamzi.ev.metrics;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Counts every request the client makes to the API server by verb. A GET is a watch, list or get depending on its URL.
+ */
+public class ApiCallInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String verb = verb(request);
+        try {
+            final Response response = chain.proceed(request);
+            Metrics.apiCall(verb, response.code());
+            return response;
+        } catch (IOException e) {
+            Metrics.apiCall(verb, 0);
+            throw e;
+        }
+    }
+
+    /**
+     * @return watch, get or list for a GET, otherwise the method in lower case e.g. patch
+     */
+    public static String verb(Request request) {
+        final String method = request.method();
+        if (!"GET".equals(method)) {
+            return method.toLowerCase();
+        }
+        if ("true".equals(request.url().queryParameter("watch"))) {
+            return "watch";
+        }
+        //Resource paths alternate between collection and name, e.g. /api/v1/namespaces/myproject/configmaps/consumer.cm,
+        //after a prefix of /api/v1, /oapi/v1 or /apis/group/version
+        final int segments = request.url().pathSize();
+        final String root = request.url().pathSegments().get(0);
+        final boolean core = "api".equals(root) || "oapi".equals(root);
+        return (segments - (core ? 2 : 3)) % 2 == 0 ? "get" : "list";
+    }
+}
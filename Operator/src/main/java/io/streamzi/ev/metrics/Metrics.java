@@ -0,0 +1,249 @@
+package io.streamzi.ev.metrics;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.HTTPServer;
+import io.prometheus.client.hotspot.DefaultExports;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Prometheus metrics for the operator, served on /metrics by {@link #serve(int)}.
+ * <p>
+ * The reconcile latency is measured from when the event for a task was received to when the task's write was accepted
+ * by the API server. The WorkQueue tells us which task is running on a thread so that the writer doesn't need to know
+ * about events.
+ */
+public final class Metrics {
+
+    private static final Histogram reconcileLatency = Histogram.build()
+            .name("ev_reconcile_latency_seconds")
+            .help("Time from receiving an event to the resulting write being applied, by the kind of resource the event was for")
+            .labelNames("kind")
+            .buckets(0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+            .register();
+
+    private static final Histogram reconcileDuration = Histogram.build()
+            .name("ev_reconcile_duration_seconds")
+            .help("Time taken to run a reconcile task, by the kind of resource the event was for")
+            .labelNames("kind")
+            .register();
+
+    private static final Counter apiCalls = Counter.build()
+            .name("ev_api_calls_total")
+            .help("Requests made to the API server, by verb and status code class")
+            .labelNames("verb", "code")
+            .register();
+
+    private static final Counter writes = Counter.build()
+            .name("ev_workload_writes_total")
+            .help("Workload updates, by kind and whether a write was applied or skipped because nothing had changed")
+            .labelNames("kind", "result")
+            .register();
+
+    private static final Counter watchReconnects = Counter.build()
+            .name("ev_watch_reconnects_total")
+            .help("Watches reconnected after closing, by kind and whether the resources had to be relisted")
+            .labelNames("kind", "reason")
+            .register();
+
+    private static final Gauge cacheSize = Gauge.build()
+            .name("ev_cache_size")
+            .help("Resources held in the cache, by kind")
+            .labelNames("kind")
+            .register();
+
+    private static final Gauge queueDepth = Gauge.build()
+            .name("ev_queue_depth")
+            .help("Reconcile tasks waiting in the WorkQueue")
+            .register();
+
+    private static final Gauge rateLimit = Gauge.build()
+            .name("ev_api_rate_limit")
+            .help("Requests per second currently allowed to the API server, by budget")
+            .labelNames("budget")
+            .register();
+
+    private static final Counter rateLimitBackoffs = Counter.build()
+            .name("ev_api_rate_limit_backoffs_total")
+            .help("Times the allowed rate was halved, by budget and whether the API server throttled, was unavailable, was slow or failed to respond")
+            .labelNames("budget", "reason")
+            .register();
+
+    private static final Counter rateLimitWait = Counter.build()
+            .name("ev_api_rate_limit_wait_seconds_total")
+            .help("Time requests spent waiting for the rate limiter, by budget")
+            .labelNames("budget")
+            .register();
+
+    private static final Gauge rollouts = Gauge.build()
+            .name("ev_rollouts")
+            .help("Targets of ConfigMap changes holding a rollout slot, and waiting for one")
+            .labelNames("state")
+            .register();
+
+    private static final Gauge startup = Gauge.build()
+            .name("ev_startup_seconds")
+            .help("Time from the process starting to the caches being primed and the watches started, and to the first reconcile finishing")
+            .labelNames("phase")
+            .register();
+
+    private static final AtomicBoolean reconciled = new AtomicBoolean();
+
+    //Kind and receive time of the task running on the current WorkQueue thread
+    private static final ThreadLocal<Task> current = new ThreadLocal<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Serve the metrics, along with the JVM's memory, GC and thread metrics, from a daemon thread
+     *
+     * @param port Port to listen on
+     * @return The server, to stop on shutdown
+     */
+    public static HTTPServer serve(int port) throws IOException {
+        DefaultExports.initialize();
+        return new HTTPServer(port, true);
+    }
+
+    /**
+     * Called by the WorkQueue before it runs a task
+     *
+     * @param kind          Kind of resource the event was for e.g. ConfigMap
+     * @param receivedNanos System.nanoTime() when the event was received
+     */
+    public static void startTask(String kind, long receivedNanos) {
+        current.set(new Task(kind, receivedNanos, System.nanoTime()));
+    }
+
+    /**
+     * Called by the WorkQueue once the task has finished
+     */
+    public static void endTask() {
+        final Task task = current.get();
+        if (task != null) {
+            reconcileDuration.labels(task.kind).observe(seconds(System.nanoTime() - task.startedNanos));
+            current.remove();
+        }
+        if (reconciled.compareAndSet(false, true)) {
+            startup.labels("first_reconcile").set(uptimeSeconds());
+        }
+    }
+
+    /**
+     * Called once the caches are primed and the watches have been started
+     *
+     * @return Seconds since the process started
+     */
+    public static double started() {
+        final double uptime = uptimeSeconds();
+        startup.labels("started").set(uptime);
+        return uptime;
+    }
+
+    /**
+     * @param kind Kind of workload written e.g. Deployment
+     */
+    public static void writeApplied(String kind) {
+        writes.labels(kind, "applied").inc();
+        final Task task = current.get();
+        if (task != null) {
+            reconcileLatency.labels(task.kind).observe(seconds(System.nanoTime() - task.receivedNanos));
+        }
+    }
+
+    public static void writeSkipped(String kind) {
+        writes.labels(kind, "skipped").inc();
+    }
+
+    /**
+     * @param verb e.g. get, watch, patch
+     * @param code HTTP status code, or 0 if no response was received
+     */
+    public static void apiCall(String verb, int code) {
+        apiCalls.labels(verb, code == 0 ? "error" : (code / 100) + "xx").inc();
+    }
+
+    /**
+     * @param kind   e.g. ConfigMaps
+     * @param relist true if the resourceVersion had expired and the resources were listed again
+     */
+    public static void watchReconnect(String kind, boolean relist) {
+        watchReconnects.labels(kind, relist ? "expired" : "closed").inc();
+    }
+
+    /**
+     * Report the rate allowed by a limiter whenever the metrics are scraped
+     *
+     * @param budget e.g. reads
+     */
+    public static void rateLimit(String budget, Supplier<Number> rate) {
+        rateLimit.setChild(gauge(rate), budget);
+    }
+
+    /**
+     * @param reason throttled, unavailable, latency or error
+     */
+    public static void rateLimitBackoff(String budget, String reason) {
+        rateLimitBackoffs.labels(budget, reason).inc();
+    }
+
+    public static void rateLimitWait(String budget, long nanos) {
+        rateLimitWait.labels(budget).inc(seconds(nanos));
+    }
+
+    /**
+     * @param state active or waiting
+     */
+    public static void rollouts(String state, Supplier<Number> targets) {
+        rollouts.setChild(gauge(targets), state);
+    }
+
+    /**
+     * Report the size of a cache whenever the metrics are scraped
+     */
+    public static void cacheSize(String kind, Supplier<Number> size) {
+        cacheSize.setChild(gauge(size), kind);
+    }
+
+    public static void queueDepth(Supplier<Number> depth) {
+        queueDepth.setChild(gauge(depth));
+    }
+
+    private static Gauge.Child gauge(Supplier<Number> value) {
+        return new Gauge.Child() {
+            @Override
+            public double get() {
+                return value.get().doubleValue();
+            }
+        };
+    }
+
+    private static double uptimeSeconds() {
+        return ManagementFactory.getRuntimeMXBean().getUptime() / 1e3;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static class Task {
+
+        private final String kind;
+
+        private final long receivedNanos;
+
+        private final long startedNanos;
+
+        Task(String kind, long receivedNanos, long startedNanos) {
+            this.kind = kind;
+            this.receivedNanos = receivedNanos;
+            this.startedNanos = startedNanos;
+        }
+    }
+}
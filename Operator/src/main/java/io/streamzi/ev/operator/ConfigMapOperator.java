@@ -1,167 +1,156 @@
 package io.streamzi.ev.operator;
 
 import io.fabric8.kubernetes.api.model.ConfigMap;
-import io.fabric8.kubernetes.api.model.Container;
-import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.api.model.extensions.Deployment;
 import io.fabric8.openshift.api.model.DeploymentConfig;
-import io.fabric8.openshift.client.DefaultOpenShiftClient;
-import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.kubernetes.client.Watcher;
 import io.streamzi.ev.NoLabelException;
+import io.streamzi.ev.cache.ResourceCache;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.List;
-import java.util.Map;
-
-import static io.streamzi.ev.operator.Util.sanitiseEnvVar;
+import java.util.Set;
 
 /**
  * EnvironmentVariableOperator that will take the payload of a ConfigMap and set Environment Variables in a container.
- * Requires a label of streamzi.io/target=<TARGET_APP> to indicate which application will receive the Environment Variables.
+ * Requires a label of streamzi.io/target=<TARGET_APP>, or a streamzi.io/target-selector annotation, to indicate which
+ * applications will receive the Environment Variables.
  */
 public class ConfigMapOperator implements EnvironmentVariableOperator<ConfigMap> {
 
     private final static Logger logger = LogManager.getLogger(EnvironmentVariableOperator.class);
 
-    private static final String TARGET_LABEL = "streamzi.io/target";
+    //Local copies of the workloads kept up to date by the DeploymentConfigWatcher and DeploymentWatcher
+    private final ResourceCache<DeploymentConfig> deploymentConfigs;
+
+    private final ResourceCache<Deployment> deployments;
+
+    //Finds the workloads that a ConfigMap targets
+    private final TargetResolver resolver;
+
+    private final WorkloadWriter writer;
+
+    //Apply every ConfigMap targeting a workload in one write
+    private final WorkloadOperator<DeploymentConfig> deploymentConfigOperator;
 
-    private OpenShiftClient osClient;
+    private final WorkloadOperator<Deployment> deploymentOperator;
 
-    public ConfigMapOperator() {
-        osClient = new DefaultOpenShiftClient();
+    public ConfigMapOperator(ResourceCache<DeploymentConfig> deploymentConfigs, ResourceCache<Deployment> deployments, TargetResolver resolver,
+                             WorkloadWriter writer, WorkloadOperator<DeploymentConfig> deploymentConfigOperator, WorkloadOperator<Deployment> deploymentOperator) {
+        this.deploymentConfigs = deploymentConfigs;
+        this.deployments = deployments;
+        this.resolver = resolver;
+        this.writer = writer;
+        this.deploymentConfigOperator = deploymentConfigOperator;
+        this.deploymentOperator = deploymentOperator;
     }
 
     @Override
     public void onAdded(ConfigMap configMap) throws NoLabelException {
-        configMapToDeploymentConfig(configMap, false);
+        configMapToDeploymentConfig(Watcher.Action.ADDED, configMap);
     }
 
     @Override
     public void onModified(ConfigMap configMap) throws NoLabelException {
-        //TODO: It would be nice to remove values which previously came from this ConfigMap but I don't think that this is possible as we only receive the updated ConfigMap.
-        configMapToDeploymentConfig(configMap, false);
+        //Keys removed from the ConfigMap are found from the ownership recorded on the workload
+        configMapToDeploymentConfig(Watcher.Action.MODIFIED, configMap);
     }
 
     @Override
     public void onDeleted(ConfigMap configMap) throws NoLabelException {
-        configMapToDeploymentConfig(configMap, true);
+        configMapToDeploymentConfig(Watcher.Action.DELETED, configMap);
     }
 
     /**
-     * Attempt to keep a set of environment variables in a container in sync with a ConfigMap
-     *
-     * @param configMap The ConfigMap to take the variables from
-     * @param remove    If true will remove the environment variable from the container
+     * @return Names of the workloads in the ConfigMap's namespace that it targets
      */
-    private void configMapToDeploymentConfig(ConfigMap configMap, boolean remove) throws NoLabelException {
-
-        final String targetContainerName = Util.getLabelValue(configMap, TARGET_LABEL);
-
-        //Only if we've got a valid container to target
-        if (targetContainerName != null) {
-
-            //Deal with OpenShift Deployment Configs
-            DeploymentConfig dc = osClient.deploymentConfigs().inNamespace(configMap.getMetadata().getNamespace()).withName(targetContainerName).get();
-
-            if (dc != null) {
-
-                boolean updated = false;
-
-                //For each EnvVar
-                final Map<String, String> data = configMap.getData();
-                for (String key : data.keySet()) {
-
-                    //Create a new sanitised EnvVar. x.y.z -> X_Y_Z
-                    final EnvVar ev = new EnvVar(sanitiseEnvVar(key), data.get(key), null);
-
-                    //For each container
-                    final List<Container> containers = dc.getSpec().getTemplate().getSpec().getContainers();
-                    for (Container container : containers) {
-
-                        //Update the container if necessary
-                        updated = updateContainer(container, ev, remove);
-                    }
-                }
+    public Set<String> getTargets(ConfigMap configMap) {
+        return resolver.getTargets(configMap);
+    }
 
-                //Push change to OpenShift
-                if (updated) {
-                    logger.info("Updating DeploymentConfig: " + dc.getMetadata().getName() + " with data from ConfigMap: " + configMap.getMetadata().getName());
-                    osClient.deploymentConfigs().inNamespace(configMap.getMetadata().getNamespace()).createOrReplace(dc);
-                }
-            }
+    /**
+     * Bring the workloads for a target up to date with all of the ConfigMaps targeting it at once, so that changes to
+     * several ConfigMaps cause a single write and so a single rollout.
+     *
+     * @param namespace Namespace of the target
+     * @param target    Name of the target workload
+     */
+    public void reconcileTarget(String namespace, String target) {
 
-            //Deal with k8s Deployments
-            Deployment deployment = osClient.extensions().deployments().inNamespace(configMap.getMetadata().getNamespace()).withName(targetContainerName).get();
+        final DeploymentConfig dc = deploymentConfigs.get(namespace, target);
+        if (dc != null) {
+            deploymentConfigOperator.onModified(dc);
+        }
 
-            if (deployment != null) {
+        final Deployment deployment = deployments.get(namespace, target);
+        if (deployment != null) {
+            deploymentOperator.onModified(deployment);
+        }
+    }
 
-                boolean updated = false;
+    /**
+     * Bring one of the workloads that a ConfigMap targets up to date with a change to the ConfigMap
+     *
+     * @param action    Action received by the Watcher
+     * @param configMap The ConfigMap that changed
+     * @param target    Name of the target workload
+     */
+    public void reconcile(Watcher.Action action, ConfigMap configMap, String target) {
 
-                //For each EnvVar
-                final Map<String, String> data = configMap.getData();
-                for (String key : data.keySet()) {
+        final String namespace = configMap.getMetadata().getNamespace();
 
-                    //Create a new sanitised EnvVar. x.y.z -> X_Y_Z
-                    final EnvVar ev = new EnvVar(sanitiseEnvVar(key), data.get(key), null);
+        //Every ConfigMap for the target is merged in order of precedence, so the result doesn't depend on which
+        //one changed last. Keys removed from the ConfigMap are found from the ownership recorded on the workload.
+        if (action != Watcher.Action.DELETED) {
+            reconcileTarget(namespace, target);
+            return;
+        }
 
-                    //For each container
-                    final List<Container> containers = deployment.getSpec().getTemplate().getSpec().getContainers();
-                    for (Container container : containers) {
+        final EnvDiff diff = EnvDiff.of(configMap);
 
-                        updated = updateContainer(container, ev, remove);
-                    }
-                }
+        //Deal with OpenShift Deployment Configs
+        final DeploymentConfig dc = deploymentConfigs.get(namespace, target);
 
-                //Push change to OpenShift
-                if (updated) {
-                    logger.info("Updating DeploymentConfig: " + deployment.getMetadata().getName() + " with data from ConfigMap: " + configMap.getMetadata().getName());
-                    osClient.extensions().deployments().inNamespace(configMap.getMetadata().getNamespace()).createOrReplace(deployment);
-                }
-            }
+        if (dc != null) {
+            configMapDeleted(Workload.DEPLOYMENT_CONFIG, dc, deploymentConfigOperator, configMap, diff);
+        }
 
-        } else
+        //Deal with k8s Deployments
+        final Deployment deployment = deployments.get(namespace, target);
 
-        {
-            throw new NoLabelException("Ignoring ConfigMap as it has not label (streamzi.io/target=<APP>) to identify container");
+        if (deployment != null) {
+            configMapDeleted(Workload.DEPLOYMENT, deployment, deploymentOperator, configMap, diff);
         }
-
     }
 
-    /*
-     * Add the Environment Variable to the container if it is different or doesn't exist.
-     * Will remove the EnvironmentVariable if remove == true;
+    /**
+     * Attempt to keep a set of environment variables in the targeted containers in sync with a ConfigMap
+     *
+     * @param action    Action received by the Watcher
+     * @param configMap The ConfigMap to take the variables from
      */
-    private boolean updateContainer(Container container, EnvVar ev, boolean remove) {
-
-        boolean updated = false;
-        //Remove the EnvVar if the CM has been deleted
-        if (remove) {
-            if (container.getEnv() != null && container.getEnv().contains(ev)) {
-                logger.info("Removing " + ev + " from " + container.getName());
-                container.getEnv().remove(ev);
-                updated = true;
-            }
-        } else {
+    private void configMapToDeploymentConfig(Watcher.Action action, ConfigMap configMap) throws NoLabelException {
 
-            //Do not update the DC if the EnvVar is the same as an existing one
-            if (container.getEnv().contains(ev)) {
-                return false;
-            } else {
+        //Only if we've got a valid container to target
+        if (!TargetResolver.hasTarget(configMap)) {
+            throw new NoLabelException("Ignoring ConfigMap as it has not label (streamzi.io/target=<APP>) or annotation ("
+                    + TargetResolver.SELECTOR_ANNOTATION + "=<SELECTOR>) to identify container");
+        }
 
-                logger.info("Creating / updating " + ev + " from " + container.getName());
+        for (String target : resolver.getTargets(configMap)) {
+            reconcile(action, configMap, target);
+        }
+    }
 
-                //Remove other EnvVars with the same name.
-                //Necessary otherwise get multiple Environment Variables with the same key which would lead to unpredictable behaviour.
-                container.getEnv().removeIf(existing ->
-                        existing.getName().toUpperCase().equals(ev.getName().toUpperCase()));
+    private <T extends HasMetadata> void configMapDeleted(Workload<T> workload, T current, WorkloadOperator<T> operator, ConfigMap configMap, EnvDiff diff) {
 
-                //Add
-                container.getEnv().add(ev);
-                updated = true;
-            }
+        if (EnvOwnership.of(current).getConfigMaps().contains(configMap.getMetadata().getName())) {
+            //The merge removes what the deleted ConfigMap set and restores any value that another ConfigMap sets
+            operator.onModified(current);
+        } else {
+            //Workloads updated before ownership was recorded fall back to removing the exact values
+            writer.update(workload, current, copy -> diff.remove(workload.getContainers(copy)));
         }
-        return updated;
     }
-
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The Environment Variables that one or more ConfigMaps want in a container, indexed by normalised (upper case) name.
+ * <p>
+ * Applying the diff indexes the container's env once, so the cost is proportional to the number of keys plus the
+ * size of the env rather than their product.
+ */
+public class EnvDiff {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(EnvDiff.class);
+
+    /**
+     * Order in which ConfigMaps setting the same Environment Variable win: highest streamzi.io/priority first, then the
+     * oldest, then by name.
+     */
+    public static final Comparator<ConfigMap> PRECEDENCE = Comparator
+            .comparingInt((ConfigMap cm) -> -getPriority(cm))
+            .thenComparing(cm -> cm.getMetadata().getCreationTimestamp() != null ? cm.getMetadata().getCreationTimestamp() : "")
+            .thenComparing(cm -> cm.getMetadata().getName());
+
+    //Normalised name -> Environment Variable, in the order the keys were read
+    private final Map<String, EnvVar> desired;
+
+    private EnvDiff(Map<String, EnvVar> desired) {
+        this.desired = desired;
+    }
+
+    /**
+     * Merge the keys of several ConfigMaps. Where more than one sets the same Environment Variable the one that comes
+     * first in {@link #PRECEDENCE} wins, so the result doesn't depend on the order the ConfigMaps are given in.
+     */
+    public static EnvDiff of(Collection<ConfigMap> configMaps) {
+        final List<ConfigMap> ordered = new ArrayList<>(configMaps);
+        ordered.sort(PRECEDENCE);
+
+        final Map<String, EnvVar> desired = new LinkedHashMap<>();
+        for (ConfigMap configMap : ordered) {
+            if (configMap.getData() == null) {
+                continue;
+            }
+            //Sorted so that the order of the new Environment Variables doesn't depend on the order of the data
+            for (Map.Entry<String, String> entry : new TreeMap<>(configMap.getData()).entrySet()) {
+                //Create a new sanitised EnvVar. x.y.z -> X_Y_Z
+                final String name = Util.sanitiseEnvVar(entry.getKey());
+                if (desired.containsKey(name)) {
+                    logger.debug(name + " from ConfigMap " + configMap.getMetadata().getName() + " is overridden by a ConfigMap with higher precedence");
+                } else {
+                    desired.put(name, new EnvVar(name, entry.getValue(), null));
+                }
+            }
+        }
+        return new EnvDiff(desired);
+    }
+
+    public static EnvDiff of(ConfigMap configMap) {
+        return of(Collections.singletonList(configMap));
+    }
+
+    /**
+     * @return Priority from the streamzi.io/priority label, or 0 if there isn't a valid one
+     */
+    public static int getPriority(ConfigMap configMap) {
+        final String priority = Util.getLabelValue(configMap, Util.PRIORITY_LABEL);
+        if (priority != null) {
+            try {
+                return Integer.parseInt(priority);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid " + Util.PRIORITY_LABEL + " label " + priority + " on ConfigMap " + configMap.getMetadata().getName());
+            }
+        }
+        return 0;
+    }
+
+    public int size() {
+        return desired.size();
+    }
+
+    /**
+     * @param name Normalised name of an Environment Variable
+     * @return true if one of the ConfigMaps sets it
+     */
+    public boolean contains(String name) {
+        return desired.containsKey(name);
+    }
+
+    public Collection<EnvVar> getEnvVars() {
+        return desired.values();
+    }
+
+    /**
+     * Add or update the Environment Variables in every container
+     *
+     * @return true if any container was changed
+     */
+    public boolean apply(List<Container> containers) {
+        boolean updated = false;
+        for (Container container : containers) {
+            updated |= apply(container);
+        }
+        return updated;
+    }
+
+    /**
+     * Remove the Environment Variables that still have the values from the ConfigMaps from every container
+     *
+     * @return true if any container was changed
+     */
+    public boolean remove(List<Container> containers) {
+        boolean updated = false;
+        for (Container container : containers) {
+            updated |= remove(container);
+        }
+        return updated;
+    }
+
+    /*
+     * Add any Environment Variable that is missing or has a different value. Other Environment Variables with the same
+     * name in a different case, or repeating one, are removed, otherwise the container would get duplicates which would
+     * lead to unpredictable behaviour. Nothing is written unless the content differs.
+     */
+    private boolean apply(Container container) {
+
+        final List<EnvVar> env = container.getEnv() != null ? container.getEnv() : Collections.emptyList();
+
+        //Names that already have exactly the desired value, and whether anything else has one of the desired names
+        final Set<String> present = new HashSet<>();
+        boolean conflicts = false;
+        for (EnvVar existing : env) {
+            final EnvVar wanted = desired.get(normalise(existing.getName()));
+            if (wanted == null) {
+                continue;
+            }
+            if (!wanted.equals(existing) || !present.add(wanted.getName())) {
+                conflicts = true;
+            }
+        }
+
+        if (!conflicts && present.size() == desired.size()) {
+            return false;
+        }
+
+        //Keep the first exact match of each desired name and drop the rest
+        final Set<String> kept = new HashSet<>();
+        final List<EnvVar> updated = new ArrayList<>(env.size() + desired.size() - present.size());
+        for (EnvVar existing : env) {
+            final EnvVar wanted = desired.get(normalise(existing.getName()));
+            if (wanted == null || (wanted.equals(existing) && kept.add(wanted.getName()))) {
+                updated.add(existing);
+            }
+        }
+        for (EnvVar wanted : desired.values()) {
+            if (!present.contains(wanted.getName())) {
+                logger.info("Creating / updating " + wanted + " in " + container.getName());
+                updated.add(wanted);
+            }
+        }
+
+        container.setEnv(updated);
+        return true;
+    }
+
+    /*
+     * Remove the Environment Variables that have exactly the desired value. Ones that have been changed since are kept.
+     */
+    private boolean remove(Container container) {
+
+        if (container.getEnv() == null) {
+            return false;
+        }
+
+        final List<EnvVar> updated = new ArrayList<>(container.getEnv().size());
+        for (EnvVar existing : container.getEnv()) {
+            if (existing.equals(desired.get(normalise(existing.getName())))) {
+                logger.info("Removing " + existing + " from " + container.getName());
+            } else {
+                updated.add(existing);
+            }
+        }
+
+        if (updated.size() == container.getEnv().size()) {
+            return false;
+        }
+        container.setEnv(updated);
+        return true;
+    }
+
+    static String normalise(String name) {
+        return name == null ? null : name.toUpperCase();
+    }
+}
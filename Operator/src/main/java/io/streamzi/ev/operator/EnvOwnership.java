@@ -0,0 +1,174 @@
+package io.streamzi.ev.operator;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records which Environment Variables of a workload came from which ConfigMap, so that the keys removed from a
+ * ConfigMap can be removed from the workload too.
+ * <p>
+ * The record is kept in an annotation on the workload's metadata, not the pod template, so updating it doesn't cause
+ * a rollout. For each ConfigMap it holds the names of the Environment Variables it set and a short hash of each value.
+ * <p>
+ * The record is brought up to date with {@link #record} and {@link #forget} for every ConfigMap first. Then a variable
+ * is removed from a container if the previous record says a ConfigMap set it but none of the ConfigMaps for the
+ * container sets it now. It is only removed if it still has a value the operator set, so a value that has been changed
+ * by hand is left alone.
+ */
+public class EnvOwnership {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(EnvOwnership.class);
+
+    public static final String OWNERS_ANNOTATION = "streamzi.io/env-owners";
+
+    private static final ObjectMapper mapper = Serialization.jsonMapper();
+
+    //ConfigMap name -> Environment Variable name -> hash of the value. Sorted so the annotation is stable.
+    private final Map<String, Map<String, String>> owners;
+
+    //Normalised name -> hashes of the values set, from the record as it was read from the workload
+    private final Map<String, Set<String>> previous = new HashMap<>();
+
+    private EnvOwnership(Map<String, Map<String, String>> owners) {
+        this.owners = owners;
+        for (Map<String, String> owned : owners.values()) {
+            for (Map.Entry<String, String> entry : owned.entrySet()) {
+                previous.computeIfAbsent(EnvDiff.normalise(entry.getKey()), k -> new HashSet<>()).add(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return The ownership recorded on the workload, which is empty if there isn't any
+     */
+    public static EnvOwnership of(HasMetadata workload) {
+        final Map<String, String> annotations = workload.getMetadata().getAnnotations();
+        final String raw = annotations != null ? annotations.get(OWNERS_ANNOTATION) : null;
+        if (raw != null) {
+            try {
+                return new EnvOwnership(mapper.readValue(raw, new TypeReference<TreeMap<String, Map<String, String>>>() {
+                }));
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable " + OWNERS_ANNOTATION + " annotation on " + workload.getMetadata().getName());
+            }
+        }
+        return new EnvOwnership(new TreeMap<>());
+    }
+
+    /**
+     * @return Names of the ConfigMaps that have set Environment Variables on the workload
+     */
+    public Set<String> getConfigMaps() {
+        return new HashSet<>(owners.keySet());
+    }
+
+    /**
+     * Record the Environment Variables that a ConfigMap now sets, replacing what it set before
+     */
+    public void record(String configMap, EnvDiff diff) {
+        final Map<String, String> owned = new TreeMap<>();
+        for (EnvVar ev : diff.getEnvVars()) {
+            owned.put(ev.getName(), hash(ev.getValue()));
+        }
+        owners.put(configMap, owned);
+    }
+
+    public void forget(String configMap) {
+        owners.remove(configMap);
+    }
+
+    /**
+     * Remove the Environment Variables that the previous record says the operator set, but that none of the
+     * container's ConfigMaps sets now. Must be called once every ConfigMap has been recorded or forgotten, so that a
+     * name that several ConfigMaps shared is judged on all of them at once.
+     *
+     * @param container  Container of the workload
+     * @param configMaps Names of the ConfigMaps that apply to the container
+     * @return true if the container was changed
+     */
+    public boolean removeStale(Container container, Collection<String> configMaps) {
+
+        if (previous.isEmpty() || container.getEnv() == null) {
+            return false;
+        }
+
+        //Names that a ConfigMap for the container still sets must stay
+        final Set<String> wanted = new HashSet<>();
+        for (String configMap : configMaps) {
+            final Map<String, String> owned = owners.get(configMap);
+            if (owned != null) {
+                for (String name : owned.keySet()) {
+                    wanted.add(EnvDiff.normalise(name));
+                }
+            }
+        }
+
+        final List<EnvVar> kept = new ArrayList<>(container.getEnv().size());
+        for (EnvVar existing : container.getEnv()) {
+            final String name = EnvDiff.normalise(existing.getName());
+            final Set<String> hashes = previous.get(name);
+            if (hashes != null && !wanted.contains(name) && existing.getValueFrom() == null && hashes.contains(hash(existing.getValue()))) {
+                logger.info("Removing " + existing.getName() + " from " + container.getName() + " as no ConfigMap for it sets it any more");
+            } else {
+                kept.add(existing);
+            }
+        }
+        if (kept.size() == container.getEnv().size()) {
+            return false;
+        }
+        container.setEnv(kept);
+        return true;
+    }
+
+    /**
+     * Write the record to the workload's annotations, removing the annotation if nothing is owned
+     *
+     * @return true if the annotation was changed
+     */
+    public boolean writeTo(HasMetadata workload) {
+        Map<String, String> annotations = workload.getMetadata().getAnnotations();
+        if (owners.isEmpty()) {
+            return annotations != null && annotations.remove(OWNERS_ANNOTATION) != null;
+        }
+        if (annotations == null) {
+            annotations = new HashMap<>();
+            workload.getMetadata().setAnnotations(annotations);
+        }
+        try {
+            final String json = mapper.writeValueAsString(owners);
+            return !json.equals(annotations.put(OWNERS_ANNOTATION, json));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * 32 bit FNV-1a of the value as 8 hex digits. Only has to tell whether a value has changed, not resist collisions.
+     */
+    static String hash(String value) {
+        int h = 0x811c9dc5;
+        if (value != null) {
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                h ^= b & 0xff;
+                h *= 0x01000193;
+            }
+        }
+        return String.format("%08x", h);
+    }
+}
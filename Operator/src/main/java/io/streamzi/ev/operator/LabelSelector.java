@@ -0,0 +1,238 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.client.dsl.Filterable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Kubernetes label selector e.g. app=consumer,tier!=frontend,env in (prod,staging),!canary, parsed once and matched
+ * against the labels of many resources.
+ * <p>
+ * Supports the equality based terms key=value, key==value and key!=value and the set based terms key in (a,b),
+ * key notin (a,b), key (exists) and !key (does not exist). Matching doesn't allocate so that it can be used to reject
+ * events for resources the operator isn't interested in.
+ */
+public class LabelSelector {
+
+    //key in (a, b) or key notin (a, b)
+    private static final Pattern SET_TERM = Pattern.compile("([^\\s(),!=]+)\\s+(in|notin)\\s*\\((.*)\\)");
+
+    //Label keys can't contain whitespace or the selector's operators
+    private static final Pattern KEY = Pattern.compile("[^\\s(),!=]+");
+
+    //Most recently used selectors kept compiled. Bounded as the selectors come from ConfigMaps that are edited and deleted.
+    static final int MAX_COMPILED = 1024;
+
+    //Selectors are shared by every ConfigMap that uses the same string. Guarded by itself.
+    private static final Map<String, LabelSelector> compiled = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final String selector;
+
+    private final List<Requirement> requirements;
+
+    private LabelSelector(String selector, List<Requirement> requirements) {
+        this.selector = selector;
+        this.requirements = requirements;
+    }
+
+    /**
+     * @param selector e.g. app=consumer,tier!=frontend,env in (prod,staging)
+     * @return The compiled selector
+     * @throws IllegalArgumentException if the selector can't be parsed
+     */
+    public static LabelSelector parse(String selector) {
+        synchronized (compiled) {
+            final LabelSelector cached = compiled.get(selector);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final List<Requirement> requirements = new ArrayList<>();
+        for (String term : splitTerms(selector)) {
+            final String trimmed = term.trim();
+            if (!trimmed.isEmpty()) {
+                requirements.add(parseTerm(trimmed, selector));
+            }
+        }
+
+        final LabelSelector parsed = new LabelSelector(selector, Collections.unmodifiableList(requirements));
+        synchronized (compiled) {
+            compiled.put(selector, parsed);
+            if (compiled.size() > MAX_COMPILED) {
+                final Iterator<String> eldest = compiled.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @param labels Labels of a resource, may be null
+     * @return true if the labels satisfy every requirement
+     */
+    public boolean matches(Map<String, String> labels) {
+        final Map<String, String> actual = labels != null ? labels : Collections.emptyMap();
+        for (int i = 0; i < requirements.size(); i++) {
+            if (!requirements.get(i).matches(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the requirements to a list or watch so that the API server only sends the matching resources
+     *
+     * @param resources e.g. client.configMaps().inNamespace(namespace)
+     * @return The filtered operation
+     */
+    public <F extends Filterable<F>> F applyTo(F resources) {
+        F filtered = resources;
+        for (Requirement requirement : requirements) {
+            final String[] values = requirement.values.toArray(new String[0]);
+            switch (requirement.operator) {
+                case IN:
+                    filtered = values.length == 1 ? filtered.withLabel(requirement.key, values[0]) : filtered.withLabelIn(requirement.key, values);
+                    break;
+                case NOT_IN:
+                    filtered = values.length == 1 ? filtered.withoutLabel(requirement.key, values[0]) : filtered.withLabelNotIn(requirement.key, values);
+                    break;
+                case EXISTS:
+                    filtered = filtered.withLabel(requirement.key);
+                    break;
+                default:
+                    filtered = filtered.withoutLabel(requirement.key);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * @return key=value of the first requirement that allows a single value, which every match must have, or null if
+     * there isn't one
+     */
+    public String getIndexTerm() {
+        for (Requirement requirement : requirements) {
+            if (requirement.operator == Operator.IN && requirement.values.size() == 1) {
+                return requirement.key + "=" + requirement.values.iterator().next();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return selector;
+    }
+
+    /*
+     * Split at the commas that aren't inside the brackets of a set based term
+     */
+    private static List<String> splitTerms(String selector) {
+        final List<String> terms = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < selector.length(); i++) {
+            final char c = selector.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                terms.add(selector.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("Unbalanced brackets in label selector '" + selector + "'");
+        }
+        terms.add(selector.substring(start));
+        return terms;
+    }
+
+    private static Requirement parseTerm(String term, String selector) {
+
+        final Matcher set = SET_TERM.matcher(term);
+        if (set.matches()) {
+            final Set<String> values = new HashSet<>();
+            for (String value : set.group(3).split(",")) {
+                if (!value.trim().isEmpty()) {
+                    values.add(value.trim());
+                }
+            }
+            if (values.isEmpty()) {
+                throw new IllegalArgumentException("No values in label selector term '" + term + "' in '" + selector + "'");
+            }
+            return new Requirement(set.group(1), set.group(2).equals("in") ? Operator.IN : Operator.NOT_IN, values);
+        }
+
+        final int notEquals = term.indexOf("!=");
+        final int equals = term.indexOf('=');
+        if (notEquals > 0) {
+            return new Requirement(key(term.substring(0, notEquals), term, selector), Operator.NOT_IN,
+                    Collections.singleton(term.substring(notEquals + 2).trim()));
+        } else if (equals > 0) {
+            //Both = and == mean equals
+            final int value = term.startsWith("==", equals) ? equals + 2 : equals + 1;
+            return new Requirement(key(term.substring(0, equals), term, selector), Operator.IN, Collections.singleton(term.substring(value).trim()));
+        } else if (term.startsWith("!")) {
+            return new Requirement(key(term.substring(1), term, selector), Operator.DOES_NOT_EXIST, Collections.emptySet());
+        } else if (equals < 0) {
+            return new Requirement(key(term, term, selector), Operator.EXISTS, Collections.emptySet());
+        }
+        throw new IllegalArgumentException("Invalid label selector term '" + term + "' in '" + selector + "'");
+    }
+
+    private static String key(String key, String term, String selector) {
+        final String trimmed = key.trim();
+        if (!KEY.matcher(trimmed).matches()) {
+            throw new IllegalArgumentException("Invalid label selector term '" + term + "' in '" + selector + "'");
+        }
+        return trimmed;
+    }
+
+    private enum Operator {
+        IN, NOT_IN, EXISTS, DOES_NOT_EXIST
+    }
+
+    private static class Requirement {
+
+        private final String key;
+
+        private final Operator operator;
+
+        //Values for IN and NOT_IN. key=value is IN with one value and key!=value is NOT_IN with one value.
+        private final Set<String> values;
+
+        Requirement(String key, Operator operator, Set<String> values) {
+            this.key = key;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        boolean matches(Map<String, String> labels) {
+            switch (operator) {
+                case IN:
+                    return values.contains(labels.get(key));
+                case NOT_IN:
+                    //As in Kubernetes, a resource without the label matches
+                    return !values.contains(labels.get(key));
+                case EXISTS:
+                    return labels.containsKey(key);
+                default:
+                    return !labels.containsKey(key);
+            }
+        }
+    }
+}
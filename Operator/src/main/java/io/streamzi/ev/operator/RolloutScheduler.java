@@ -0,0 +1,285 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.metrics.Metrics;
+import io.streamzi.ev.queue.WorkQueue;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Staggers the rollouts caused by ConfigMap changes, so that a ConfigMap shared by many workloads doesn't restart all of
+ * their pods at once.
+ * <p>
+ * Sits between the ConfigMapWatcher and the WorkQueue. At most maxConcurrent targets are reconciled, or rolling out, at
+ * a time. The changes for the other targets wait here in the order they arrived, with a later change replacing the one
+ * waiting for the same key as in the WorkQueue.
+ * <p>
+ * A target whose reconcile didn't write anything gives up its slot as soon as it finishes, as does one whose task the
+ * WorkQueue discarded without running. When waiting for readiness a
+ * target that was written keeps its slot until the cached workload reports that every replica is running the new pod
+ * template and is available, or the timeout passes. The caches are kept up to date by the watches so following the
+ * rollouts doesn't call the API server.
+ */
+public class RolloutScheduler implements WorkloadWriter.Listener {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(RolloutScheduler.class);
+
+    private static final long POLL_MILLIS = 1000;
+
+    private final ResourceCache<DeploymentConfig> deploymentConfigs;
+
+    private final ResourceCache<Deployment> deployments;
+
+    private final WorkQueue queue;
+
+    private final int maxConcurrent;
+
+    private final boolean waitForReady;
+
+    private final long timeoutNanos;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "rollout-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Shard key (namespace/target) -> queue key -> change waiting for a slot, both in the order they arrived. Guarded by this.
+    private final LinkedHashMap<String, LinkedHashMap<String, Waiting>> waiting = new LinkedHashMap<>();
+
+    //Shard key -> target holding a slot. Guarded by this.
+    private final Map<String, Rollout> active = new HashMap<>();
+
+    private long rolledOut;
+
+    private long timedOut;
+
+    /**
+     * @param maxConcurrent Targets that may be reconciled or rolling out at once
+     * @param waitForReady  true to keep a target's slot until its rollout has finished, false to free it once written
+     * @param timeout       Longest a target keeps its slot
+     */
+    public RolloutScheduler(ResourceCache<DeploymentConfig> deploymentConfigs, ResourceCache<Deployment> deployments, WorkQueue queue,
+                            int maxConcurrent, boolean waitForReady, long timeout, TimeUnit unit) {
+        this.deploymentConfigs = deploymentConfigs;
+        this.deployments = deployments;
+        this.queue = queue;
+        this.maxConcurrent = maxConcurrent;
+        this.waitForReady = waitForReady;
+        this.timeoutNanos = unit.toNanos(timeout);
+        scheduler.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        Metrics.rollouts("active", this::getActive);
+        Metrics.rollouts("waiting", this::getWaiting);
+    }
+
+    /**
+     * Queue a task once its target has a slot, replacing any task that is still waiting for the same key.
+     *
+     * @param shardKey namespace/name of the target
+     * @param key      Identifies the change e.g. Target/myproject/consumer
+     * @param received System.nanoTime() when the event that caused the task was received
+     * @param task     Task to run on the WorkQueue
+     */
+    public synchronized void add(String shardKey, String key, long received, Runnable task) {
+        final Map<String, Waiting> forTarget = waiting.computeIfAbsent(shardKey, k -> new LinkedHashMap<>());
+        final Waiting previous = forTarget.get(key);
+        if (previous != null) {
+            previous.task = task;
+            previous.received = Math.min(previous.received, received);
+        } else {
+            forTarget.put(key, new Waiting(received, task));
+        }
+        dispatch();
+    }
+
+    /**
+     * Follow the rollout started by a write to a target that holds a slot
+     */
+    @Override
+    public <T extends HasMetadata> void written(Workload<T> workload, T result) {
+        final Long generation = result.getMetadata().getGeneration();
+        if (!waitForReady || generation == null) {
+            return;
+        }
+        final String namespace = result.getMetadata().getNamespace();
+        final String name = result.getMetadata().getName();
+        final ResourceCache<T> cache = cache(workload);
+
+        synchronized (this) {
+            final Rollout rollout = active.get(ResourceCache.key(namespace, name));
+            if (rollout != null) {
+                rollout.awaiting.add(() -> {
+                    final T latest = cache.get(namespace, name);
+                    return latest == null || workload.isRolledOut(latest, generation);
+                });
+            }
+        }
+    }
+
+    /**
+     * Drop everything, e.g. when this replica stops being the leader and the WorkQueue discards its tasks
+     */
+    public synchronized void clear() {
+        waiting.clear();
+        active.clear();
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public synchronized int getActive() {
+        return active.size();
+    }
+
+    /**
+     * @return Number of targets waiting for a slot
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /*
+     * Start the waiting targets, oldest first, while there are free slots
+     */
+    private void dispatch() {
+        final Iterator<Map.Entry<String, LinkedHashMap<String, Waiting>>> it = waiting.entrySet().iterator();
+        while (active.size() < maxConcurrent && it.hasNext()) {
+            final Map.Entry<String, LinkedHashMap<String, Waiting>> next = it.next();
+            final String shardKey = next.getKey();
+            if (active.containsKey(shardKey)) {
+                continue;
+            }
+            it.remove();
+
+            final Rollout rollout = new Rollout(shardKey);
+            active.put(shardKey, rollout);
+            for (Map.Entry<String, Waiting> change : next.getValue().entrySet()) {
+                if (queue.add(shardKey, change.getKey(), change.getValue().received, new Slotted(change.getValue().task, rollout))) {
+                    rollout.running++;
+                }
+            }
+
+            //Dropped by the WorkQueue, e.g. because another replica owns the target
+            if (rollout.running == 0) {
+                active.remove(shardKey);
+            }
+        }
+    }
+
+    private synchronized void finished(Rollout rollout) {
+        rollout.running--;
+        if (rollout.running == 0 && rollout.awaiting.isEmpty()) {
+            release(rollout);
+        }
+    }
+
+    private synchronized void poll() {
+        final long now = System.nanoTime();
+        for (Rollout rollout : new ArrayList<>(active.values())) {
+            if (rollout.running == 0) {
+                rollout.awaiting.removeIf(BooleanSupplier::getAsBoolean);
+                if (rollout.awaiting.isEmpty()) {
+                    rolledOut++;
+                    logger.info("Rolled out " + rollout.shardKey + " in " + TimeUnit.NANOSECONDS.toSeconds(now - rollout.started) + "s");
+                    release(rollout);
+                    continue;
+                }
+            }
+            if (now - rollout.started > timeoutNanos) {
+                timedOut++;
+                logger.warn("Gave up waiting for " + rollout.shardKey + " to roll out after " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + "s, moving on");
+                release(rollout);
+            }
+        }
+    }
+
+    private void release(Rollout rollout) {
+        //Ignore a task finishing after its target timed out
+        if (active.remove(rollout.shardKey, rollout)) {
+            dispatch();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends HasMetadata> ResourceCache<T> cache(Workload<T> workload) {
+        return (ResourceCache<T>) (workload == Workload.DEPLOYMENT_CONFIG ? deploymentConfigs : deployments);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RolloutScheduler{maxConcurrent=" + maxConcurrent + ", waitForReady=" + waitForReady + ", active=" + active.size()
+                + ", waiting=" + waiting.size() + ", rolledOut=" + rolledOut + ", timedOut=" + timedOut + "}";
+    }
+
+    private static class Waiting {
+
+        private long received;
+
+        private Runnable task;
+
+        Waiting(long received, Runnable task) {
+            this.received = received;
+            this.task = task;
+        }
+    }
+
+    /*
+     * Runs a task for a target holding a slot, and counts it as finished whether it runs or the WorkQueue discards it
+     */
+    private class Slotted implements WorkQueue.Discardable {
+
+        private final Runnable task;
+
+        private final Rollout rollout;
+
+        Slotted(Runnable task, Rollout rollout) {
+            this.task = task;
+            this.rollout = rollout;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                finished(rollout);
+            }
+        }
+
+        @Override
+        public void discarded() {
+            finished(rollout);
+        }
+    }
+
+    private static class Rollout {
+
+        private final String shardKey;
+
+        private final long started = System.nanoTime();
+
+        //Tasks queued and not yet finished
+        private int running;
+
+        //Tests for the writes made while holding the slot, true once the workload has rolled out
+        private final List<BooleanSupplier> awaiting = new ArrayList<>();
+
+        Rollout(String shardKey) {
+            this.shardKey = shardKey;
+        }
+    }
+}
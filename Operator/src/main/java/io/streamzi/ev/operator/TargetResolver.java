@@ -0,0 +1,218 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.streamzi.ev.cache.ResourceCache;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Works out which workloads a ConfigMap applies to, and which ConfigMaps apply to a workload.
+ * <p>
+ * A ConfigMap targets a workload by name with the streamzi.io/target label, and/or every workload in its namespace
+ * whose labels match the label selector in the streamzi.io/target-selector annotation. The streamzi.io/containers
+ * annotation limits the ConfigMap to the named containers so that e.g. sidecars don't receive the application's
+ * variables.
+ * <p>
+ * Both directions are answered from cache indexes: workloads are indexed by each of their labels, and ConfigMaps with a
+ * selector are indexed by namespace, so fanning out to many workloads doesn't scan the caches.
+ */
+public class TargetResolver {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(TargetResolver.class);
+
+    //Label selector choosing the workloads in the ConfigMap's namespace, e.g. app=consumer,tier!=frontend
+    public static final String SELECTOR_ANNOTATION = "streamzi.io/target-selector";
+
+    //Comma separated names of the containers that receive the Environment Variables. Defaults to every container.
+    public static final String CONTAINERS_ANNOTATION = "streamzi.io/containers";
+
+    //Workload cache index of namespace/key=value for each label
+    public static final String LABELS_INDEX = "labels";
+
+    //ConfigMap cache index of the namespace of each ConfigMap with a selector
+    public static final String SELECTOR_INDEX = "selector";
+
+    //Most recently reported ConfigMaps with an invalid selector. Bounded as ConfigMaps are edited and deleted.
+    static final int MAX_REPORTED = 1024;
+
+    //namespace/name -> resourceVersion of each ConfigMap whose invalid selector has been logged. Guarded by itself.
+    private static final Map<String, String> reported = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ResourceCache<ConfigMap> configMaps;
+
+    private final ResourceCache<DeploymentConfig> deploymentConfigs;
+
+    private final ResourceCache<Deployment> deployments;
+
+    public TargetResolver(ResourceCache<ConfigMap> configMaps, ResourceCache<DeploymentConfig> deploymentConfigs, ResourceCache<Deployment> deployments) {
+        this.configMaps = configMaps;
+        this.deploymentConfigs = deploymentConfigs;
+        this.deployments = deployments;
+    }
+
+    /**
+     * Index values for {@link #LABELS_INDEX}
+     */
+    public static Collection<String> getLabelKeys(HasMetadata workload) {
+        final Map<String, String> labels = workload.getMetadata().getLabels();
+        if (labels == null) {
+            return Collections.emptyList();
+        }
+        final List<String> keys = new ArrayList<>(labels.size());
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            keys.add(workload.getMetadata().getNamespace() + "/" + label.getKey() + "=" + label.getValue());
+        }
+        return keys;
+    }
+
+    /**
+     * Index value for {@link #SELECTOR_INDEX}
+     *
+     * @return The namespace if the ConfigMap is labelled streamzi.io/kind=ev and has a selector, otherwise null
+     */
+    public static String getSelectorKey(ConfigMap configMap) {
+        if (!Util.KIND_VALUE.equals(Util.getLabelValue(configMap, Util.KIND_LABEL))) {
+            return null;
+        }
+        return getAnnotation(configMap, SELECTOR_ANNOTATION) != null ? configMap.getMetadata().getNamespace() : null;
+    }
+
+    /**
+     * An invalid selector is logged as a warning once for each version of the ConfigMap, as the selector is read every
+     * time the ConfigMap or one of the workloads in its namespace changes.
+     *
+     * @return The ConfigMap's selector, or null if it doesn't have a valid one
+     */
+    public static LabelSelector getSelector(ConfigMap configMap) {
+        final String selector = getAnnotation(configMap, SELECTOR_ANNOTATION);
+        if (selector == null) {
+            return null;
+        }
+        try {
+            return LabelSelector.parse(selector);
+        } catch (IllegalArgumentException e) {
+            final String message = "Ignoring " + SELECTOR_ANNOTATION + " on ConfigMap " + configMap.getMetadata().getName() + ": " + e.getMessage();
+            if (report(configMap)) {
+                logger.warn(message);
+            } else {
+                logger.debug(message);
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Returns true the first time this version of the ConfigMap is seen with an invalid selector
+     */
+    static boolean report(ConfigMap configMap) {
+        final String key = ResourceCache.key(configMap);
+        final String resourceVersion = configMap.getMetadata().getResourceVersion();
+        synchronized (reported) {
+            if (reported.containsKey(key) && Objects.equals(reported.get(key), resourceVersion)) {
+                return false;
+            }
+            reported.put(key, resourceVersion);
+            if (reported.size() > MAX_REPORTED) {
+                final Iterator<String> eldest = reported.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the ConfigMap names a target or has a selector
+     */
+    public static boolean hasTarget(ConfigMap configMap) {
+        return Util.getLabelValue(configMap, Util.TARGET_LABEL) != null || getAnnotation(configMap, SELECTOR_ANNOTATION) != null;
+    }
+
+    /**
+     * @return true if the ConfigMap's Environment Variables should be set in the container
+     */
+    public static boolean appliesTo(ConfigMap configMap, String containerName) {
+        final String containers = getAnnotation(configMap, CONTAINERS_ANNOTATION);
+        if (containers == null) {
+            return true;
+        }
+        for (String container : containers.split(",")) {
+            if (container.trim().equals(containerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Names of the workloads in the ConfigMap's namespace that it targets, in order
+     */
+    public Set<String> getTargets(ConfigMap configMap) {
+
+        final String namespace = configMap.getMetadata().getNamespace();
+        final Set<String> targets = new TreeSet<>();
+
+        final String target = Util.getLabelValue(configMap, Util.TARGET_LABEL);
+        if (target != null) {
+            targets.add(target);
+        }
+
+        final LabelSelector selector = getSelector(configMap);
+        if (selector != null) {
+            select(deploymentConfigs, namespace, selector, targets);
+            select(deployments, namespace, selector, targets);
+        }
+        return targets;
+    }
+
+    /**
+     * @return The streamzi.io/kind=ev ConfigMaps that target the workload by name or by selector
+     */
+    public List<ConfigMap> getConfigMaps(HasMetadata workload) {
+
+        final String namespace = workload.getMetadata().getNamespace();
+
+        //Keyed by name as a ConfigMap can target a workload both ways
+        final Map<String, ConfigMap> found = new LinkedHashMap<>();
+        for (ConfigMap configMap : configMaps.byIndex(Util.TARGET_INDEX, ResourceCache.key(namespace, workload.getMetadata().getName()))) {
+            found.put(configMap.getMetadata().getName(), configMap);
+        }
+        for (ConfigMap configMap : configMaps.byIndex(SELECTOR_INDEX, namespace)) {
+            final LabelSelector selector = getSelector(configMap);
+            if (selector != null && selector.matches(workload.getMetadata().getLabels())) {
+                found.put(configMap.getMetadata().getName(), configMap);
+            }
+        }
+        return new ArrayList<>(found.values());
+    }
+
+    private static <T extends HasMetadata> void select(ResourceCache<T> workloads, String namespace, LabelSelector selector, Set<String> into) {
+        //Every match has the selector's first key=value label, so only the workloads with that label need checking
+        final String term = selector.getIndexTerm();
+        final List<T> candidates = term != null ? workloads.byIndex(LABELS_INDEX, namespace + "/" + term) : workloads.list(namespace);
+        for (T workload : candidates) {
+            if (selector.matches(workload.getMetadata().getLabels())) {
+                into.add(workload.getMetadata().getName());
+            }
+        }
+    }
+
+    private static String getAnnotation(ConfigMap configMap, String key) {
+        final Map<String, String> annotations = configMap.getMetadata().getAnnotations();
+        final String value = annotations != null ? annotations.get(key) : null;
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+}
@@ -1,9 +1,22 @@
 package io.streamzi.ev.operator;
 
 import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.streamzi.ev.cache.ResourceCache;
 
 public class Util {
 
+    public static final String TARGET_LABEL = "streamzi.io/target";
+
+    public static final String KIND_LABEL = "streamzi.io/kind";
+
+    public static final String KIND_VALUE = "ev";
+
+    //Integer label deciding which ConfigMap wins when several set the same Environment Variable. Higher wins.
+    public static final String PRIORITY_LABEL = "streamzi.io/priority";
+
+    //Name of the ConfigMap cache index that maps namespace/target to the ConfigMaps targeting that application
+    public static final String TARGET_INDEX = "target";
+
     /**
      * Returns an uppercase version of the input with '.' replaced with '_' suitable for use as UNIX environment variables.
      *
@@ -31,4 +44,20 @@ public class Util {
         }
     }
 
+    /**
+     * Index value for the ConfigMap cache so that the ConfigMaps targeting an application can be found without a scan.
+     *
+     * @param configMap ConfigMap to index
+     * @return namespace/target if the ConfigMap is labelled streamzi.io/kind=ev and streamzi.io/target=APP, otherwise null
+     */
+    public static String getTargetKey(ConfigMap configMap) {
+
+        if (!KIND_VALUE.equals(getLabelValue(configMap, KIND_LABEL))) {
+            return null;
+        }
+
+        final String target = getLabelValue(configMap, TARGET_LABEL);
+        return target == null ? null : ResourceCache.key(configMap.getMetadata().getNamespace(), target);
+    }
+
 }
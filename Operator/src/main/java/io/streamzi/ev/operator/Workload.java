@@ -0,0 +1,148 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentStatus;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.api.model.DeploymentConfigBuilder;
+import io.fabric8.openshift.api.model.DeploymentConfigStatus;
+import io.fabric8.openshift.client.OpenShiftClient;
+
+import java.util.List;
+
+/**
+ * The kinds of workload that receive Environment Variables. Hides the differences between Deployments and
+ * DeploymentConfigs from the code that reads and writes them.
+ */
+public abstract class Workload<T extends HasMetadata> {
+
+    public static final Workload<Deployment> DEPLOYMENT = new Workload<Deployment>(Deployment.class, "apis/extensions/v1beta1", "deployments") {
+
+        @Override
+        public Deployment copy(Deployment d) {
+            return new DeploymentBuilder(d).build();
+        }
+
+        @Override
+        public List<Container> getContainers(Deployment d) {
+            return d.getSpec().getTemplate().getSpec().getContainers();
+        }
+
+        @Override
+        public Deployment get(OpenShiftClient osClient, String namespace, String name) {
+            return osClient.extensions().deployments().inNamespace(namespace).withName(name).get();
+        }
+
+        @Override
+        public Deployment createOrReplace(OpenShiftClient osClient, Deployment d) {
+            return osClient.extensions().deployments().inNamespace(d.getMetadata().getNamespace()).createOrReplace(d);
+        }
+
+        @Override
+        public boolean isRolledOut(Deployment d, long generation) {
+            final DeploymentStatus status = d.getStatus();
+            return Boolean.TRUE.equals(d.getSpec().getPaused()) || status != null && rolledOut(generation, d.getSpec().getReplicas(),
+                    status.getObservedGeneration(), status.getReplicas(), status.getUpdatedReplicas(), status.getAvailableReplicas());
+        }
+    };
+
+    public static final Workload<DeploymentConfig> DEPLOYMENT_CONFIG = new Workload<DeploymentConfig>(DeploymentConfig.class, "oapi/v1", "deploymentconfigs") {
+
+        @Override
+        public DeploymentConfig copy(DeploymentConfig dc) {
+            return new DeploymentConfigBuilder(dc).build();
+        }
+
+        @Override
+        public List<Container> getContainers(DeploymentConfig dc) {
+            return dc.getSpec().getTemplate().getSpec().getContainers();
+        }
+
+        @Override
+        public DeploymentConfig get(OpenShiftClient osClient, String namespace, String name) {
+            return osClient.deploymentConfigs().inNamespace(namespace).withName(name).get();
+        }
+
+        @Override
+        public DeploymentConfig createOrReplace(OpenShiftClient osClient, DeploymentConfig dc) {
+            return osClient.deploymentConfigs().inNamespace(dc.getMetadata().getNamespace()).createOrReplace(dc);
+        }
+
+        @Override
+        public boolean isRolledOut(DeploymentConfig dc, long generation) {
+            final DeploymentConfigStatus status = dc.getStatus();
+            return Boolean.TRUE.equals(dc.getSpec().getPaused()) || status != null && rolledOut(generation, dc.getSpec().getReplicas(),
+                    status.getObservedGeneration(), status.getReplicas(), status.getUpdatedReplicas(), status.getAvailableReplicas());
+        }
+    };
+
+    private final Class<T> type;
+
+    private final String apiPath;
+
+    private final String plural;
+
+    private Workload(Class<T> type, String apiPath, String plural) {
+        this.type = type;
+        this.apiPath = apiPath;
+        this.plural = plural;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getKind() {
+        return type.getSimpleName();
+    }
+
+    /**
+     * @return Path of the resource relative to the master URL e.g. apis/extensions/v1beta1/namespaces/myproject/deployments/consumer
+     */
+    public String getPath(String namespace, String name) {
+        return apiPath + "/namespaces/" + namespace + "/" + plural + "/" + name;
+    }
+
+    /**
+     * @return Deep copy of the workload that can be modified without affecting the original
+     */
+    public abstract T copy(T workload);
+
+    /**
+     * @return The containers in the pod template of the workload
+     */
+    public abstract List<Container> getContainers(T workload);
+
+    public abstract T get(OpenShiftClient osClient, String namespace, String name);
+
+    public abstract T createOrReplace(OpenShiftClient osClient, T workload);
+
+    /**
+     * @param workload   Latest version of the workload
+     * @param generation Generation written, which the controller must have acted on
+     * @return true if every replica is running the pod template of that generation and is available, or the workload
+     * is paused so won't roll out
+     */
+    public abstract boolean isRolledOut(T workload, long generation);
+
+    /*
+     * The same test as kubectl rollout status: the controller has seen the generation, every replica has been updated
+     * and is available, and the old replicas have gone
+     */
+    private static boolean rolledOut(long generation, Integer desired, Long observedGeneration, Integer replicas, Integer updated, Integer available) {
+        final int want = desired != null ? desired : 1;
+        return observedGeneration != null && observedGeneration >= generation
+                && count(updated) >= want && count(available) >= want && count(replicas) <= count(updated);
+    }
+
+    private static int count(Integer replicas) {
+        return replicas != null ? replicas : 0;
+    }
+
+    @Override
+    public String toString() {
+        return getKind();
+    }
+}
@@ -0,0 +1,195 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.checkpoint.Checkpoint;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * EnvironmentVariableOperator that will take the payload of a workload and check to see if there are ConfigMaps
+ * containing environment variables that should be applied to it
+ */
+public abstract class WorkloadOperator<T extends HasMetadata> implements EnvironmentVariableOperator<T> {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(WorkloadOperator.class);
+
+    private final Workload<T> workload;
+
+    //Finds the ConfigMaps for a workload from the caches kept up to date by the watchers
+    private final TargetResolver resolver;
+
+    private final WorkloadWriter writer;
+
+    //When set, workloads that haven't changed since they were last reconciled are skipped
+    private Checkpoint checkpoint;
+
+    protected WorkloadOperator(Workload<T> workload, TargetResolver resolver, WorkloadWriter writer) {
+        this.workload = workload;
+        this.resolver = resolver;
+        this.writer = writer;
+    }
+
+    @Override
+    public void onAdded(T t) {
+        workloadAdded(t);
+    }
+
+    @Override
+    public void onModified(T t) {
+        workloadAdded(t);
+    }
+
+    @Override
+    public void onDeleted(T t) {
+        if (checkpoint != null) {
+            checkpoint.forget(checkpointKey(t));
+        }
+    }
+
+    /**
+     * Record the outcome of each reconcile so that reconciling an unchanged workload again, e.g. after a restart,
+     * does nothing
+     *
+     * @param checkpoint Fingerprints of the workloads when last reconciled
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /*
+     * Finds all the ConfigMaps that might reference this workload and applies the Environment Variables to the
+     * workload if it finds any.
+     */
+    private void workloadAdded(T t) {
+
+        //The streamzi.io/kind=ev ConfigMaps targeting this application by name or by selector
+        final List<ConfigMap> cms = resolver.getConfigMaps(t);
+
+        if (checkpoint != null && checkpoint.isUnchanged(checkpointKey(t), fingerprint(t, cms))) {
+            logger.debug("Skipping " + workload + ": " + t.getMetadata().getName() + " as neither it nor its ConfigMaps have changed since it was reconciled");
+            return;
+        }
+
+        //The version the ConfigMaps were last applied to, which is what was written if anything changed
+        final AtomicReference<T> applied = new AtomicReference<>(t);
+
+        //A workload with no ConfigMaps left may still have Environment Variables from ones deleted while we weren't watching
+        if (!cms.isEmpty() || !EnvOwnership.of(t).getConfigMaps().isEmpty()) {
+            final Map<String, EnvDiff> diffs = new LinkedHashMap<>();
+            for (ConfigMap cm : cms) {
+                diffs.put(cm.getMetadata().getName(), EnvDiff.of(cm));
+            }
+            //Merged diff for each combination of ConfigMaps that apply to a container, kept across conflict retries
+            final Map<List<String>, EnvDiff> merged = new HashMap<>();
+            writer.update(workload, t, copy -> {
+                applied.set(copy);
+                return applyConfigMaps(copy, cms, diffs, merged);
+            });
+        }
+
+        if (checkpoint != null) {
+            checkpoint.record(checkpointKey(t), fingerprint(applied.get(), cms));
+        }
+    }
+
+    private String checkpointKey(T t) {
+        return workload.getKind() + "/" + ResourceCache.key(t);
+    }
+
+    /*
+     * Fingerprint of everything that decides the outcome of a reconcile: the Environment Variables and ownership
+     * recorded on the workload, and the name and version of each ConfigMap for it
+     */
+    private long fingerprint(T t, List<ConfigMap> cms) {
+        final Map<String, String> annotations = t.getMetadata().getAnnotations();
+        long hash = Checkpoint.hash(Checkpoint.SEED, annotations != null ? annotations.get(EnvOwnership.OWNERS_ANNOTATION) : null);
+
+        final List<Container> containers = workload.getContainers(t);
+        hash = Checkpoint.hash(hash, containers.size());
+        for (Container container : containers) {
+            hash = Checkpoint.hash(hash, container.getName());
+            final List<EnvVar> env = container.getEnv() != null ? container.getEnv() : Collections.<EnvVar>emptyList();
+            hash = Checkpoint.hash(hash, env.size());
+            for (EnvVar var : env) {
+                hash = Checkpoint.hash(hash, var.getName());
+                hash = Checkpoint.hash(hash, var.getValue());
+                hash = Checkpoint.hash(hash, var.getValueFrom() != null ? var.getValueFrom().toString() : null);
+            }
+        }
+
+        hash = Checkpoint.hash(hash, cms.size());
+        for (ConfigMap cm : cms) {
+            hash = Checkpoint.hash(hash, cm.getMetadata().getName());
+            hash = Checkpoint.hash(hash, cm.getMetadata().getResourceVersion());
+        }
+        return hash;
+    }
+
+    /*
+     * Remove the keys that each ConfigMap no longer has, and the keys of ConfigMaps that no longer exist, then apply
+     * the rest to the containers each ConfigMap is for. Returns true if anything was changed.
+     */
+    private boolean applyConfigMaps(T copy, List<ConfigMap> cms, Map<String, EnvDiff> diffs, Map<List<String>, EnvDiff> merged) {
+
+        final List<Container> containers = workload.getContainers(copy);
+        final EnvOwnership ownership = EnvOwnership.of(copy);
+        final Set<String> deleted = ownership.getConfigMaps();
+
+        for (ConfigMap cm : cms) {
+            final String name = cm.getMetadata().getName();
+            ownership.record(name, diffs.get(name));
+            deleted.remove(name);
+        }
+        for (String name : deleted) {
+            ownership.forget(name);
+        }
+
+        //Usually every container gets the same ConfigMaps, so there is one group
+        final Map<List<String>, List<Container>> groups = new LinkedHashMap<>();
+        for (Container container : containers) {
+            final List<String> applicable = new ArrayList<>();
+            for (ConfigMap cm : cms) {
+                if (TargetResolver.appliesTo(cm, container.getName())) {
+                    applicable.add(cm.getMetadata().getName());
+                }
+            }
+            groups.computeIfAbsent(applicable, k -> new ArrayList<>()).add(container);
+        }
+
+        //Keys removed from a ConfigMap, ConfigMaps deleted and containers taken out of streamzi.io/containers all
+        //leave variables that no ConfigMap for the container sets any more
+        boolean updated = false;
+        for (Map.Entry<List<String>, List<Container>> group : groups.entrySet()) {
+            for (Container container : group.getValue()) {
+                updated |= ownership.removeStale(container, group.getKey());
+            }
+        }
+
+        for (Map.Entry<List<String>, List<Container>> group : groups.entrySet()) {
+            final EnvDiff diff = merged.computeIfAbsent(group.getKey(), names -> {
+                final List<ConfigMap> subset = new ArrayList<>();
+                for (ConfigMap cm : cms) {
+                    if (names.contains(cm.getMetadata().getName())) {
+                        subset.add(cm);
+                    }
+                }
+                return EnvDiff.of(subset);
+            });
+            updated |= diff.apply(group.getValue());
+        }
+
+        return ownership.writeTo(copy) | updated;
+    }
+}
@@ -0,0 +1,246 @@
+package io.streamzi.ev.operator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.kubernetes.client.utils.URLUtils;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.streamzi.ev.metrics.Metrics;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Pushes changes to the Environment Variables of a workload to the API server.
+ * <p>
+ * In PATCH mode only the env of the containers and the annotations that changed are sent, as a JSON patch that also carries the
+ * resourceVersion the change was based on. If someone else has written the workload in the meantime the API server
+ * rejects the patch with a conflict, the latest version is fetched and the change is applied to it again. REPLACE mode
+ * sends the whole workload with createOrReplace as the operator originally did.
+ */
+public class WorkloadWriter {
+
+    private final static Logger logger = LogManager.getLogger(WorkloadWriter.class);
+
+    public enum Mode {
+        PATCH,
+        REPLACE
+    }
+
+    /**
+     * Told about every write that the API server accepted, on the thread that made it
+     */
+    public interface Listener {
+        <T extends HasMetadata> void written(Workload<T> workload, T result);
+    }
+
+    private static final MediaType JSON_PATCH = MediaType.parse("application/json-patch+json");
+
+    private static final int HTTP_CONFLICT = 409;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+
+    private static final long MAX_BACKOFF_MILLIS = 3200;
+
+    private final OpenShiftClient osClient;
+
+    private final OkHttpClient httpClient;
+
+    private final WriteTracker writes;
+
+    private final Mode mode;
+
+    private final int attempts;
+
+    private volatile Listener listener;
+
+    public WorkloadWriter(OpenShiftClient osClient, WriteTracker writes, Mode mode, int attempts) {
+        this.osClient = osClient;
+        this.httpClient = ((HttpClientAware) osClient).getHttpClient();
+        this.writes = writes;
+        this.mode = mode;
+        this.attempts = attempts;
+    }
+
+    /**
+     * @param listener Told about each write, e.g. to follow the rollout it starts
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Apply a change to a workload and write the workload if anything changed.
+     *
+     * @param workload Kind of workload
+     * @param current  Most recent version of the workload known to the caller. This is not modified.
+     * @param change   Modifies the containers or annotations of a copy of the workload. Returns true if anything was changed.
+     * @return true if the workload was written
+     */
+    public <T extends HasMetadata> boolean update(Workload<T> workload, T current, Predicate<T> change) {
+
+        final String namespace = current.getMetadata().getNamespace();
+        final String name = current.getMetadata().getName();
+
+        T original = current;
+        for (int attempt = 1; ; attempt++) {
+
+            final T updated = workload.copy(original);
+            if (!change.test(updated)) {
+                Metrics.writeSkipped(workload.getKind());
+                return false;
+            }
+
+            logger.info("Updating " + workload + ": " + name);
+
+            try {
+                final T result = mode == Mode.PATCH ? patch(workload, original, updated) : workload.createOrReplace(osClient, updated);
+                writes.recordWrite(result);
+                Metrics.writeApplied(workload.getKind());
+                final Listener l = listener;
+                if (l != null && result != null) {
+                    l.written(workload, result);
+                }
+                return true;
+
+            } catch (KubernetesClientException e) {
+                if (e.getCode() != HTTP_CONFLICT || attempt >= attempts) {
+                    throw e;
+                }
+                logger.info("Conflict updating " + workload + ": " + name + " on attempt " + attempt + ", retrying with the latest version");
+            }
+
+            backoff(attempt);
+
+            original = workload.get(osClient, namespace, name);
+            if (original == null) {
+                logger.info(workload + ": " + name + " has been deleted");
+                return false;
+            }
+        }
+    }
+
+    /*
+     * Send a JSON patch replacing the env of each container and each annotation that has changed
+     */
+    private <T extends HasMetadata> T patch(Workload<T> workload, T original, T updated) {
+
+        final ObjectMapper mapper = Serialization.jsonMapper();
+        final ArrayNode ops = mapper.createArrayNode();
+
+        //The API server checks the resourceVersion and returns a conflict if the workload has changed since it was read
+        ops.addObject()
+                .put("op", "replace")
+                .put("path", "/metadata/resourceVersion")
+                .put("value", original.getMetadata().getResourceVersion());
+
+        final List<Container> before = workload.getContainers(original);
+        final List<Container> after = workload.getContainers(updated);
+        for (int i = 0; i < after.size(); i++) {
+
+            if (!Objects.equals(before.get(i).getEnv(), after.get(i).getEnv())) {
+
+                final String path = "/spec/template/spec/containers/" + i;
+
+                //Make sure the index still refers to the same container
+                ops.addObject()
+                        .put("op", "test")
+                        .put("path", path + "/name")
+                        .put("value", after.get(i).getName());
+
+                //add replaces the env if it is already there
+                ops.addObject()
+                        .put("op", "add")
+                        .put("path", path + "/env")
+                        .set("value", mapper.valueToTree(after.get(i).getEnv()));
+            }
+        }
+
+        patchAnnotations(ops, original.getMetadata().getAnnotations(), updated.getMetadata().getAnnotations());
+
+        final String url = URLUtils.join(osClient.getMasterUrl().toString(),
+                workload.getPath(original.getMetadata().getNamespace(), original.getMetadata().getName()));
+
+        final Request request = new Request.Builder()
+                .url(url)
+                .patch(RequestBody.create(JSON_PATCH, ops.toString()))
+                .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new KubernetesClientException("Failed to patch " + url + ": " + response.code() + " " + response.message(), response.code(), null);
+            }
+            return Serialization.unmarshal(response.body().string(), workload.getType());
+        } catch (IOException e) {
+            throw new KubernetesClientException("Failed to patch " + url, e);
+        }
+    }
+
+    private static void patchAnnotations(ArrayNode ops, Map<String, String> before, Map<String, String> after) {
+
+        final Map<String, String> previous = before != null ? before : Collections.emptyMap();
+        final Map<String, String> current = after != null ? after : Collections.emptyMap();
+        if (previous.equals(current)) {
+            return;
+        }
+
+        //There's nothing to add a single annotation to if the workload has none
+        if (previous.isEmpty()) {
+            final ObjectNode annotations = ops.addObject()
+                    .put("op", "add")
+                    .put("path", "/metadata/annotations")
+                    .putObject("value");
+            current.forEach(annotations::put);
+            return;
+        }
+
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                ops.addObject()
+                        .put("op", "add")
+                        .put("path", "/metadata/annotations/" + escape(entry.getKey()))
+                        .put("value", entry.getValue());
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!current.containsKey(key)) {
+                ops.addObject()
+                        .put("op", "remove")
+                        .put("path", "/metadata/annotations/" + escape(key));
+            }
+        }
+    }
+
+    /*
+     * Escape a key for use in a JSON pointer e.g. streamzi.io/env-owners -> streamzi.io~1env-owners
+     */
+    private static String escape(String key) {
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+
+    private void backoff(int attempt) {
+        final long millis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (attempt - 1));
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KubernetesClientException("Interrupted while waiting to retry", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the resourceVersion of every workload written by the operators so that the Watchers can recognise the
+ * MODIFIED event caused by that write and drop it instead of reconciling the workload again.
+ */
+public class WriteTracker {
+
+    //kind/namespace/name -> resourceVersion returned by our last write
+    private final ConcurrentMap<String, String> written = new ConcurrentHashMap<>();
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param result Resource returned by the API server from a write
+     */
+    public void recordWrite(HasMetadata result) {
+        if (result != null && result.getMetadata().getResourceVersion() != null) {
+            written.put(key(result), result.getMetadata().getResourceVersion());
+        }
+    }
+
+    /**
+     * Does the event carry the resource exactly as the operator last wrote it?
+     *
+     * @param received Resource received by a Watcher
+     * @return true if the event is the echo of our own write
+     */
+    public boolean isOwnWrite(HasMetadata received) {
+        final String resourceVersion = received.getMetadata().getResourceVersion();
+        if (resourceVersion != null && written.remove(key(received), resourceVersion)) {
+            suppressed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget a resource once it has been deleted
+     */
+    public void forget(HasMetadata deleted) {
+        written.remove(key(deleted));
+    }
+
+    /**
+     * Is the event a change to metadata or status only? The generation only increases when the spec changes, which
+     * is where the Environment Variables live.
+     *
+     * @param previous Version of the resource held in the cache before the event
+     * @param received Resource received by a Watcher
+     * @return true if both versions have the same generation
+     */
+    public boolean isSpecUnchanged(HasMetadata previous, HasMetadata received) {
+        if (previous == null) {
+            return false;
+        }
+        final Long before = previous.getMetadata().getGeneration();
+        final Long after = received.getMetadata().getGeneration();
+        if (before != null && before.equals(after)) {
+            suppressed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteTracker{tracked=" + written.size() + ", suppressed=" + suppressed.get() + "}";
+    }
+
+    private static String key(HasMetadata resource) {
+        return resource.getKind() + "/" + resource.getMetadata().getNamespace() + "/" + resource.getMetadata().getName();
+    }
+}
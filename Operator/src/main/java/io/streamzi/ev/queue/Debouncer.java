@@ -0,0 +1,136 @@
+package io.streamzi.ev.queue;
+
+import org.apache.logging.log4j.LogManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds back tasks until their key has been quiet for a window, so that a burst of changes, e.g. several ConfigMaps
+ * for the same application updated by one GitOps sync, results in a single task.
+ * <p>
+ * Every task added for a key restarts the window and replaces the task waiting for that key. A key is never held back
+ * for longer than the max wait after its first task, so a key that keeps changing is still handled.
+ */
+public class Debouncer {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(Debouncer.class);
+
+    private final long windowNanos;
+
+    private final long maxWaitNanos;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "debouncer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Key -> task waiting for the window to close. Guarded by this.
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    private final AtomicLong added = new AtomicLong();
+
+    private final AtomicLong released = new AtomicLong();
+
+    /**
+     * @param window  How long a key has to be quiet before its task is released
+     * @param maxWait Longest a key is held back after its first task
+     */
+    public Debouncer(long window, long maxWait, TimeUnit unit) {
+        this.windowNanos = unit.toNanos(window);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /**
+     * Hold back a task, replacing any task that is waiting for the same key
+     *
+     * @param key  e.g. myproject/consumer
+     * @param task Run, on the debouncer's thread, once the window closes. Should only hand the work on.
+     */
+    public synchronized void add(String key, Runnable task) {
+        added.incrementAndGet();
+
+        final long now = System.nanoTime();
+        Pending p = pending.get(key);
+        if (p == null) {
+            p = new Pending(now);
+            pending.put(key, p);
+        } else {
+            p.future.cancel(false);
+        }
+
+        p.task = task;
+        final long generation = ++p.generation;
+        final long delay = Math.max(0, Math.min(windowNanos, p.first + maxWaitNanos - now));
+        final Pending scheduled = p;
+        p.future = scheduler.schedule(() -> release(key, scheduled, generation), delay, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return Number of keys being held back
+     */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * @return Number of tasks that were replaced by a later task for the same key
+     */
+    public long getMerged() {
+        return added.get() - released.get() - getPending();
+    }
+
+    public long getReleased() {
+        return released.get();
+    }
+
+    private void release(String key, Pending p, long generation) {
+        final Runnable task;
+        synchronized (this) {
+            //A later task has restarted the window
+            if (p.generation != generation || pending.get(key) != p) {
+                return;
+            }
+            pending.remove(key);
+            task = p.task;
+        }
+
+        released.incrementAndGet();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            logger.error("Error releasing " + key, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Debouncer{pending=" + getPending() + ", released=" + getReleased() + ", merged=" + getMerged() + "}";
+    }
+
+    private static class Pending {
+
+        //When the first task for the key was added (System.nanoTime)
+        private final long first;
+
+        private Runnable task;
+
+        private long generation;
+
+        private ScheduledFuture<?> future;
+
+        Pending(long first) {
+            this.first = first;
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package io.streamzi.ev.queue;
+
+import io.streamzi.ev.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Queue of reconcile tasks that sits between the Watchers and the EnvironmentVariableOperators.
+ * <p>
+ * Tasks are keyed by the resource they were created for. If a resource receives another event while its previous task
+ * is still waiting the task is replaced rather than queued again, so a burst of events is coalesced into a single
+ * reconcile using the most recent state.
+ * <p>
+ * The queue is split into shards, each processed by its own thread. Tasks are assigned to a shard by hashing a shard
+ * key, normally namespace/name of the workload affected, so all of the work for one workload is done in order on one
+ * thread while different workloads are reconciled in parallel.
+ * <p>
+ * The shard threads can be virtual threads on Java 21 or later. A shard then costs a few hundred bytes rather than a
+ * platform thread's stack, so there can be enough shards for workloads to rarely wait behind each other, while a limit
+ * on the reconciles in flight stops them all calling the API server at once.
+ * <p>
+ * While the queue is inactive, for example on a standby replica, tasks are counted and dropped. When the work is split
+ * between several replicas tasks whose shard key belongs to another replica are also dropped.
+ * <p>
+ * A {@link Discardable} task is told if it is accepted but never run, because a later task for the same key replaced
+ * it or the queue became inactive while it was waiting.
+ */
+public class WorkQueue {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(WorkQueue.class);
+
+    private final Shard[] shards;
+
+    private final boolean virtualThreads;
+
+    private final int maxInFlight;
+
+    //Limits the tasks running at once across the shards. Null when there are no more shards than the limit.
+    private final Semaphore inFlight;
+
+    private ExecutorService executor;
+
+    private volatile boolean active = true;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    //Tests whether this replica owns a shard key. Null when this replica owns everything.
+    private volatile Predicate<String> ownership;
+
+    private final AtomicLong notOwned = new AtomicLong();
+
+    /**
+     * @param shards Number of shards, and so threads, to process the queue with
+     */
+    public WorkQueue(int shards) {
+        this(shards, shards, false);
+    }
+
+    /**
+     * @param shards         Number of shards, and so threads, to process the queue with
+     * @param maxInFlight    Number of tasks that may run at once
+     * @param virtualThreads true to process the shards on virtual threads if the JVM supports them
+     */
+    public WorkQueue(int shards, int maxInFlight, boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = maxInFlight < shards ? new Semaphore(maxInFlight) : null;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i, inFlight);
+        }
+    }
+
+    /**
+     * Start a thread for each shard
+     */
+    public synchronized void start() {
+        ThreadFactory factory = virtualThreads ? virtualThreadFactory() : null;
+        if (virtualThreads && factory == null) {
+            logger.warn("Virtual threads need Java 21 or later, processing the WorkQueue on platform threads");
+        }
+        if (factory == null) {
+            final AtomicInteger count = new AtomicInteger();
+            factory = r -> new Thread(r, "work-queue-" + count.getAndIncrement());
+        }
+        executor = Executors.newFixedThreadPool(shards.length, factory);
+        for (Shard shard : shards) {
+            executor.submit(shard);
+        }
+        logger.info("Started WorkQueue with " + shards.length + " shards" + (inFlight != null ? " running at most " + maxInFlight + " tasks at once" : ""));
+    }
+
+    /**
+     * Interrupt the shard threads and wait for them to finish their current task
+     */
+    public synchronized void stop(long timeout, TimeUnit unit) throws InterruptedException {
+        if (executor != null) {
+            for (Shard shard : shards) {
+                shard.stop();
+            }
+            executor.shutdownNow();
+            executor.awaitTermination(timeout, unit);
+        }
+    }
+
+    /*
+     * Thread.ofVirtual().name("work-queue-", 0).factory(), or null before Java 21. Looked up reflectively so that the
+     * operator still builds and runs on Java 8.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Object named = builderClass.getMethod("name", String.class, long.class).invoke(builder, "work-queue-", 0L);
+            final Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(named);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queue a task, replacing any task that is still waiting for the same key.
+     *
+     * @param key  Identifies the resource the task reconciles e.g. Deployment/myproject/consumer
+     * @param task Task to run
+     */
+    public void add(String key, Runnable task) {
+        add(key, key, task);
+    }
+
+    /**
+     * Queue a task, replacing any task that is still waiting for the same key.
+     *
+     * @param shardKey Tasks with the same shard key are run in order on the same thread e.g. myproject/consumer
+     * @param key      Identifies the resource the task reconciles e.g. ConfigMap/myproject/consumer.cm
+     * @param task     Task to run
+     */
+    public void add(String shardKey, String key, Runnable task) {
+        add(shardKey, key, System.nanoTime(), task);
+    }
+
+    /**
+     * Queue a task, replacing any task that is still waiting for the same key.
+     *
+     * @param shardKey Tasks with the same shard key are run in order on the same thread e.g. myproject/consumer
+     * @param key      Identifies the resource the task reconciles e.g. ConfigMap/myproject/consumer.cm
+     * @param received System.nanoTime() when the event that caused the task was received, if before now
+     * @param task     Task to run
+     * @return false if the task was dropped because the queue is inactive or another replica owns the shard key
+     */
+    public boolean add(String shardKey, String key, long received, Runnable task) {
+        if (!active) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        final Predicate<String> owns = ownership;
+        if (owns != null && !owns.test(shardKey)) {
+            notOwned.incrementAndGet();
+            return false;
+        }
+        shards[(shardKey.hashCode() & Integer.MAX_VALUE) % shards.length].add(key, new Task(task, received));
+        return true;
+    }
+
+    /**
+     * Start or stop accepting tasks. Tasks that are waiting when the queue becomes inactive are discarded.
+     */
+    public void setActive(boolean active) {
+        this.active = active;
+        if (!active) {
+            for (Shard shard : shards) {
+                final List<Task> cleared = shard.clear();
+                dropped.addAndGet(cleared.size());
+                for (Task task : cleared) {
+                    discarded(task);
+                }
+            }
+        }
+        logger.info("WorkQueue is now " + (active ? "active" : "inactive"));
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    private static void discarded(Task task) {
+        if (task.runnable instanceof Discardable) {
+            ((Discardable) task.runnable).discarded();
+        }
+    }
+
+    /**
+     * Only accept tasks for the shard keys that this replica owns
+     *
+     * @param ownership Tests a shard key, or null to accept every task
+     */
+    public void setOwnership(Predicate<String> ownership) {
+        this.ownership = ownership;
+    }
+
+    /**
+     * @return Number of tasks dropped because their shard key belongs to another replica
+     */
+    public long getNotOwned() {
+        return notOwned.get();
+    }
+
+    /**
+     * @return Number of tasks dropped because the queue was inactive
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.getDepth();
+        }
+        return depth;
+    }
+
+    public int getMaxDepth() {
+        int maxDepth = 0;
+        for (Shard shard : shards) {
+            maxDepth = Math.max(maxDepth, shard.getMaxDepth());
+        }
+        return maxDepth;
+    }
+
+    public long getAdded() {
+        long added = 0;
+        for (Shard shard : shards) {
+            added += shard.getAdded();
+        }
+        return added;
+    }
+
+    public long getCoalesced() {
+        long coalesced = 0;
+        for (Shard shard : shards) {
+            coalesced += shard.getCoalesced();
+        }
+        return coalesced;
+    }
+
+    public long getProcessed() {
+        long processed = 0;
+        for (Shard shard : shards) {
+            processed += shard.getProcessed();
+        }
+        return processed;
+    }
+
+    /**
+     * @return Number of events received for each reconcile that was queued. 1.0 means no events were coalesced.
+     */
+    public double getCoalescingRatio() {
+        final long added = getAdded();
+        final long queued = added - getCoalesced();
+        return queued == 0 ? 1.0 : (double) added / queued;
+    }
+
+    /**
+     * @return Number of tasks running, if the number is limited, otherwise -1
+     */
+    public int getInFlight() {
+        return inFlight != null ? maxInFlight - inFlight.availablePermits() : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkQueue{shards=" + shards.length + ", depth=" + getDepth() + ", maxShardDepth=" + getMaxDepth()
+                + ", added=" + getAdded() + ", coalesced=" + getCoalesced() + ", processed=" + getProcessed() + ", dropped=" + getDropped() + ", notOwned=" + getNotOwned()
+                + (inFlight != null ? ", inFlight=" + getInFlight() : "") + ", coalescingRatio=" + String.format("%.2f", getCoalescingRatio()) + "}";
+    }
+
+    /*
+     * Part of the queue processed by a single thread. Uses a lock rather than synchronized because on Java 21 a virtual
+     * thread waiting in Object.wait() holds on to its carrier thread.
+     */
+    private static class Shard implements Runnable {
+
+        private final int id;
+
+        private final Semaphore inFlight;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition notEmpty = lock.newCondition();
+
+        //Key -> latest task for that key. Guarded by lock.
+        private final LinkedHashMap<String, Task> pending = new LinkedHashMap<>();
+
+        private long added;
+
+        private long coalesced;
+
+        private long processed;
+
+        private int maxDepth;
+
+        //Set before the thread is interrupted, as an HTTP call in a task can clear the interrupt
+        private volatile boolean stopped;
+
+        Shard(int id, Semaphore inFlight) {
+            this.id = id;
+            this.inFlight = inFlight;
+        }
+
+        void add(String key, Task task) {
+            final Task previous;
+            lock.lock();
+            try {
+                added++;
+                previous = pending.put(key, task);
+                if (previous != null) {
+                    //Latency is measured from the oldest event the task stands in for
+                    task.received = Math.min(task.received, previous.received);
+                    coalesced++;
+                } else {
+                    maxDepth = Math.max(maxDepth, pending.size());
+                    notEmpty.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (previous != null) {
+                discarded(previous);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void run() {
+            logger.debug("Starting WorkQueue shard " + id);
+
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+
+                final Map.Entry<String, Task> next;
+                try {
+                    next = take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                //e.g. ConfigMap from ConfigMap/myproject/consumer.cm
+                final int kind = next.getKey().indexOf('/');
+                Metrics.startTask(kind > 0 ? next.getKey().substring(0, kind) : next.getKey(), next.getValue().received);
+                try {
+                    next.getValue().runnable.run();
+                } catch (Throwable t) {
+                    //Keep the shard running, otherwise every key that hashes to it would stop being processed
+                    logger.error("Error processing " + next.getKey(), t);
+                } finally {
+                    if (inFlight != null) {
+                        inFlight.release();
+                    }
+                    Metrics.endTask();
+                }
+
+                lock.lock();
+                try {
+                    processed++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            logger.debug("Stopped WorkQueue shard " + id);
+        }
+
+        /*
+         * Wait for a task, then for a permit to run it. The task stays queued while waiting for the permit so that
+         * later events for the same key are still coalesced into it.
+         */
+        private Map.Entry<String, Task> take() throws InterruptedException {
+            while (true) {
+                lock.lockInterruptibly();
+                try {
+                    while (pending.isEmpty()) {
+                        notEmpty.await();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (inFlight != null) {
+                    inFlight.acquire();
+                }
+
+                lock.lock();
+                try {
+                    final Iterator<Map.Entry<String, Task>> it = pending.entrySet().iterator();
+                    if (it.hasNext()) {
+                        final Map.Entry<String, Task> next = it.next();
+                        it.remove();
+                        return next;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                //Cleared while waiting for the permit
+                if (inFlight != null) {
+                    inFlight.release();
+                }
+            }
+        }
+
+        List<Task> clear() {
+            lock.lock();
+            try {
+                final List<Task> cleared = new ArrayList<>(pending.values());
+                pending.clear();
+                return cleared;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getDepth() {
+            lock.lock();
+            try {
+                return pending.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getMaxDepth() {
+            lock.lock();
+            try {
+                return maxDepth;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getAdded() {
+            lock.lock();
+            try {
+                return added;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getCoalesced() {
+            lock.lock();
+            try {
+                return coalesced;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getProcessed() {
+            lock.lock();
+            try {
+                return processed;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A task that needs to know if it won't be run, e.g. to give up a resource it was holding for the run
+     */
+    public interface Discardable extends Runnable {
+
+        /**
+         * Called instead of run, on the thread that replaced the task or made the queue inactive
+         */
+        void discarded();
+    }
+
+    private static class Task {
+
+        private final Runnable runnable;
+
+        //System.nanoTime() when the event was received. Guarded by the Shard.
+        private long received;
+
+        Task(Runnable runnable, long received) {
+            this.runnable = runnable;
+            this.received = received;
+        }
+    }
+}
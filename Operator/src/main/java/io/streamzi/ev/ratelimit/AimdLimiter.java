@@ -0,0 +1,187 @@
+package io.streamzi.ev.ratelimit;
+
+import io.streamzi.ev.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces requests to the API server at a rate that adapts to how the API server is coping.
+ * <p>
+ * The rate starts at the maximum. It is halved when the API server responds with 429 Too Many Requests or 503 Service
+ * Unavailable, fails to respond, or takes longer than the latency target, and grows again by a tenth of the maximum
+ * each second that requests succeed. The rate is halved at most once a second because the requests already in flight
+ * when the API server starts struggling all see the same trouble.
+ * <p>
+ * Requests are spaced evenly rather than allowed to burst, so a mass ConfigMap change is spread out rather than sent as
+ * fast as the watch delivers the events.
+ * <p>
+ * Without a maximum requests aren't paced until the API server struggles. The rate is then halved from the rate that
+ * requests were being sent at over the last second, and grows back by a tenth of that rate each second until it
+ * reaches it, when requests stop being paced again.
+ */
+public class AimdLimiter {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(AimdLimiter.class);
+
+    //Requests per second the rate never drops below, so that the operator always makes progress
+    static final double MIN_RATE = 1;
+
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String budget;
+
+    //Infinite when there is no limit
+    private final double maxRate;
+
+    private final long latencyTargetNanos;
+
+    private final LongSupplier clock;
+
+    //Requests per second, infinite when not paced. Guarded by this.
+    private double rate;
+
+    //Rate at which the recovery stops and the growth of the rate on the way. Guarded by this.
+    private double recovered;
+
+    private double increase;
+
+    //Requests started in the second since windowStart, and the rate over the second before. Guarded by this.
+    private long windowStart;
+
+    private long windowRequests;
+
+    private double sentRate;
+
+    //System.nanoTime() before which no further request may start. Guarded by this.
+    private long next;
+
+    //System.nanoTime() of the last increase and the last decrease. Guarded by this.
+    private long increased;
+
+    private long decreased;
+
+    private long backoffs;
+
+    /**
+     * @param budget             Name of the requests sharing the rate e.g. reads
+     * @param maxRate            Requests per second when the API server is healthy, 0 for no limit
+     * @param latencyTargetNanos Responses slower than this are treated as the API server struggling, 0 to ignore latency
+     */
+    public AimdLimiter(String budget, double maxRate, long latencyTargetNanos) {
+        this(budget, maxRate, latencyTargetNanos, System::nanoTime);
+    }
+
+    AimdLimiter(String budget, double maxRate, long latencyTargetNanos, LongSupplier clock) {
+        this.budget = budget;
+        this.maxRate = maxRate > 0 ? Math.max(maxRate, MIN_RATE) : Double.POSITIVE_INFINITY;
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.clock = clock;
+        this.rate = this.recovered = this.maxRate;
+        this.increase = Math.max(this.maxRate / 10, MIN_RATE);
+        this.next = this.increased = this.decreased = clock.getAsLong() - ADJUST_INTERVAL_NANOS;
+        this.windowStart = clock.getAsLong();
+        Metrics.rateLimit(budget, this::getRate);
+    }
+
+    /**
+     * Wait until the next request may be sent
+     */
+    public void acquire() throws InterruptedException {
+        final long wait = reserve();
+        if (wait > 0) {
+            Metrics.rateLimitWait(budget, wait);
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /*
+     * Returns how long to wait before sending the next request
+     */
+    synchronized long reserve() {
+        final long now = clock.getAsLong();
+        if (now - windowStart >= ADJUST_INTERVAL_NANOS) {
+            sentRate = windowRequests * (double) TimeUnit.SECONDS.toNanos(1) / (now - windowStart);
+            windowStart = now;
+            windowRequests = 0;
+        }
+        windowRequests++;
+
+        final long start = Math.max(next, now);
+        next = start + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        return start - now;
+    }
+
+    /**
+     * @param code         HTTP status code of the response
+     * @param latencyNanos Time taken to respond
+     * @param timed        false if the time taken depends on the size of the response, e.g. for a list
+     */
+    public synchronized void onResponse(int code, long latencyNanos, boolean timed) {
+        if (code == 429) {
+            decrease("throttled");
+        } else if (code == 503) {
+            decrease("unavailable");
+        } else if (timed && latencyTargetNanos > 0 && latencyNanos > latencyTargetNanos) {
+            decrease("latency");
+        } else if (code < 500) {
+            increase();
+        }
+    }
+
+    /**
+     * Called when no response was received, e.g. because the request timed out
+     */
+    public synchronized void onError() {
+        decrease("error");
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized long getBackoffs() {
+        return backoffs;
+    }
+
+    private void increase() {
+        final long now = clock.getAsLong();
+        if (rate < maxRate && now - increased >= ADJUST_INTERVAL_NANOS && now - decreased >= ADJUST_INTERVAL_NANOS) {
+            rate = rate + increase >= recovered ? maxRate : rate + increase;
+            increased = now;
+            if (Double.isInfinite(rate)) {
+                logger.info("API " + budget + " are no longer paced");
+            } else if (rate == maxRate) {
+                logger.info("API " + budget + " are back to " + format(rate) + " per second");
+            }
+        }
+    }
+
+    private void decrease(String reason) {
+        final long now = clock.getAsLong();
+        if (now - decreased < ADJUST_INTERVAL_NANOS) {
+            return;
+        }
+        if (Double.isInfinite(rate)) {
+            //Back off from the rate requests were being sent at, counting those of the current second as well
+            recovered = Math.max(Math.max(sentRate, windowRequests), 2 * MIN_RATE);
+            increase = Math.max(recovered / 10, MIN_RATE);
+            rate = recovered;
+        }
+        rate = Math.max(MIN_RATE, rate / 2);
+        decreased = now;
+        backoffs++;
+        Metrics.rateLimitBackoff(budget, reason);
+        logger.warn("Slowing API " + budget + " to " + format(rate) + " per second (" + reason + ")");
+    }
+
+    private static String format(double rate) {
+        return Double.isInfinite(rate) ? "unlimited" : String.format("%.1f", rate);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AimdLimiter{budget=" + budget + ", rate=" + format(rate) + ", maxRate=" + format(maxRate) + ", backoffs=" + backoffs + "}";
+    }
+}
@@ -0,0 +1,120 @@
+package io.streamzi.ev.ratelimit;
+
+import io.streamzi.ev.metrics.ApiCallInterceptor;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends every get and list through the reads limiter, and every other request through the writes limiter, so that
+ * reads and writes have separate budgets.
+ * <p>
+ * Watches aren't limited as each one is a single long running request. Nor are requests made on threads that called
+ * {@link #exemptCurrentThread()}, so that leader election and group membership keep their leases while the
+ * reconciles are slowed down.
+ * <p>
+ * A request rejected with 429 Too Many Requests wasn't processed so it is sent again, after the Retry-After delay, up to
+ * {@link #MAX_ATTEMPTS} times.
+ */
+public class RateLimitInterceptor implements Interceptor {
+
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 10;
+
+    private static final ThreadLocal<Boolean> exempt = new ThreadLocal<>();
+
+    private final AimdLimiter reads;
+
+    private final AimdLimiter writes;
+
+    /**
+     * @param readsPerSecond     Maximum rate of gets and lists, 0 to only slow down while the API server is throttling
+     * @param writesPerSecond    Maximum rate of creates, updates, patches and deletes, 0 to only slow down while the API
+     *                           server is throttling
+     * @param latencyTargetNanos Responses slower than this slow the requests of a budget with a maximum down, 0 to ignore
+     *                           latency
+     */
+    public RateLimitInterceptor(double readsPerSecond, double writesPerSecond, long latencyTargetNanos) {
+        this(new AimdLimiter("reads", readsPerSecond, readsPerSecond > 0 ? latencyTargetNanos : 0),
+                new AimdLimiter("writes", writesPerSecond, writesPerSecond > 0 ? latencyTargetNanos : 0));
+    }
+
+    RateLimitInterceptor(AimdLimiter reads, AimdLimiter writes) {
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * Stop limiting the requests made by the current thread
+     */
+    public static void exemptCurrentThread() {
+        exempt.set(Boolean.TRUE);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final String verb = ApiCallInterceptor.verb(request);
+        final AimdLimiter limiter = "watch".equals(verb) || exempt.get() != null ? null
+                : "get".equals(verb) || "list".equals(verb) ? reads : writes;
+        if (limiter == null) {
+            return chain.proceed(request);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to send " + request.method() + " " + request.url());
+            }
+
+            final long start = System.nanoTime();
+            final Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                limiter.onError();
+                throw e;
+            }
+            //Lists take longer the more there is to list, so only gets and writes are judged on their latency
+            limiter.onResponse(response.code(), System.nanoTime() - start, !"list".equals(verb));
+
+            if (response.code() != 429 || attempt >= MAX_ATTEMPTS) {
+                return response;
+            }
+
+            final long delay = retryAfterSeconds(response);
+            response.close();
+            try {
+                TimeUnit.SECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to retry " + request.method() + " " + request.url());
+            }
+        }
+    }
+
+    private static long retryAfterSeconds(Response response) {
+        final String retryAfter = response.header("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Math.min(Math.max(Long.parseLong(retryAfter.trim()), 0), MAX_RETRY_AFTER_SECONDS);
+            } catch (NumberFormatException e) {
+                //An HTTP date, which the API server doesn't send
+            }
+        }
+        return 1;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitInterceptor{reads=" + reads + ", writes=" + writes + "}";
+    }
+}
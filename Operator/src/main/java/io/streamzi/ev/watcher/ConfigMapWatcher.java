@@ -5,16 +5,23 @@
 package io.streamzi.ev.watcher;
 
 import io.fabric8.kubernetes.api.model.ConfigMap;
-import io.fabric8.kubernetes.api.model.ObjectMeta;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Watcher;
-import io.streamzi.ev.NoLabelException;
-import io.streamzi.ev.operator.EnvironmentVariableOperator;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.operator.ConfigMapOperator;
+import io.streamzi.ev.operator.LabelSelector;
+import io.streamzi.ev.operator.RolloutScheduler;
+import io.streamzi.ev.operator.TargetResolver;
+import io.streamzi.ev.queue.Debouncer;
+import io.streamzi.ev.queue.WorkQueue;
 import org.apache.logging.log4j.LogManager;
 
-import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 
 /**
  * Watch for changes in a ConfigMap and push them to an EnvironmentVariableOperator for applying changes to the Environment Variables of containers
@@ -23,47 +30,178 @@ public class ConfigMapWatcher implements Watcher<ConfigMap>, Runnable {
 
     private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(ConfigMapWatcher.class);
 
-    //Label that we're going to watch. e.g. streamzi.io/kind=ev
-    private String cmPredicate;
+    //Labels that we're going to watch. e.g. streamzi.io/kind=ev, compiled once rather than for every event
+    private final LabelSelector cmSelector;
+
+    //The same selector sent to the API server, so that other applications' ConfigMaps aren't received at all
+    private final ResourceFilter filter;
+
+    //Client shared with the rest of the operator
+    private final KubernetesClient client;
 
     //EnvironmentVariableOperator for updating Environment variables
-    private EnvironmentVariableOperator<ConfigMap> operator;
+    private ConfigMapOperator operator;
+
+    //Local copy of the ConfigMaps that is kept up to date from this watch
+    private final ResourceCache<ConfigMap> cache;
+
+    //Queue that the operator is called from so that bursts of events are coalesced
+    private final WorkQueue queue;
+
+    //Namespaces to watch
+    private final WatchScope scope;
+
+    //When set, changes are held back and merged per target before the target is reconciled
+    private Debouncer debouncer;
+
+    //When set, limits the targets that are updated at once
+    private RolloutScheduler rollouts;
+
+    //One watch per namespace, each reconnecting from the last resourceVersion it received
+    private final List<ResilientWatch<ConfigMap, ?>> watches = new CopyOnWriteArrayList<>();
 
 
-    public ConfigMapWatcher(EnvironmentVariableOperator<ConfigMap> operator, String cmPredicate) {
+    /**
+     * @param cmPredicate Label selector for the ConfigMaps to act on, e.g. streamzi.io/kind=ev
+     * @throws IllegalArgumentException if the selector can't be parsed
+     */
+    public ConfigMapWatcher(KubernetesClient client, ConfigMapOperator operator, String cmPredicate, ResourceCache<ConfigMap> cache, WorkQueue queue, WatchScope scope) {
+        this.client = client;
         this.operator = operator;
-        this.cmPredicate = cmPredicate;
+        this.cmSelector = LabelSelector.parse(cmPredicate);
+        this.filter = new ResourceFilter(cmPredicate, null);
+        this.cache = cache;
+        this.queue = queue;
+        this.scope = scope;
     }
 
     @Override
     public void eventReceived(Action action, ConfigMap configMap) {
 
-        ObjectMeta metadata = configMap.getMetadata();
-        Map<String, String> labels = metadata.getLabels();
-
-        if (labelValid(cmPredicate, configMap)) {
-            String name = metadata.getName();
-
-            logger.info("ConfigMap watch received event " + action + " on map " + name + " with labels" + labels);
-
-            try {
-                switch (action) {
-                    case ADDED:
-                        operator.onAdded(configMap);
-                        break;
-                    case MODIFIED:
-                        operator.onModified(configMap);
-                        break;
-                    case DELETED:
-                        operator.onDeleted(configMap);
-                        break;
-                    case ERROR:
-                        logger.warn("Watch received action=ERROR for ConfigMap " + name);
+        //The API server only sends matching ConfigMaps, but reject any others before they're cached or anything is built
+        //for the event. A ConfigMap that stops matching arrives with its new labels, so is still handled, and evicted, if
+        //the cached version matched.
+        final boolean matches = labelValid(configMap);
+        final ConfigMap cached = cache.get(configMap.getMetadata().getNamespace(), configMap.getMetadata().getName());
+        final boolean matched = cached != null && labelValid(cached);
+        if (!matches && !matched) {
+            return;
+        }
+
+        final ConfigMap previous = cache.apply(matches ? action : Action.DELETED, configMap);
+
+        final String name = configMap.getMetadata().getName();
+
+        logger.info("ConfigMap watch received event " + action + " on map " + name + " with labels" + configMap.getMetadata().getLabels());
+
+        if (action == Action.ERROR) {
+            logger.warn("Watch received action=ERROR for ConfigMap " + name);
+            return;
+        }
+
+        //Workloads that the ConfigMap no longer targets lose its Environment Variables as though it was deleted
+        final Set<String> untargeted = new TreeSet<>();
+        if (matched) {
+            untargeted.addAll(operator.getTargets(previous));
+        }
+
+        if (matches) {
+            untargeted.removeAll(enqueue(action, configMap));
+        }
+        for (String target : untargeted) {
+            enqueue(Action.DELETED, previous, target);
+        }
+    }
+
+    /**
+     * Merge the changes to all of the ConfigMaps for a target that arrive close together into one reconcile of the
+     * target.
+     *
+     * @param debouncer Holds back the changes for each target
+     */
+    public void setDebouncer(Debouncer debouncer) {
+        this.debouncer = debouncer;
+    }
+
+    /**
+     * Stagger the updates to the targets, so that a ConfigMap shared by many workloads doesn't restart them all at once
+     *
+     * @param rollouts Hands the changes for a limited number of targets at a time to the WorkQueue
+     */
+    public void setRolloutScheduler(RolloutScheduler rollouts) {
+        this.rollouts = rollouts;
+    }
+
+    /*
+     * Queue the change for each workload the ConfigMap targets. Returns the targets.
+     */
+    private Set<String> enqueue(Action action, ConfigMap configMap) {
+
+        if (action != Action.DELETED && !TargetResolver.hasTarget(configMap)) {
+            logger.warn("Ignoring ConfigMap " + configMap.getMetadata().getName() + " as it has no label (streamzi.io/target=<APP>) or annotation ("
+                    + TargetResolver.SELECTOR_ANNOTATION + "=<SELECTOR>) to identify container");
+        }
+
+        final Set<String> targets = operator.getTargets(configMap);
+        for (String target : targets) {
+            enqueue(action, configMap, target);
+        }
+        return targets;
+    }
+
+    private void enqueue(Action action, ConfigMap configMap, String target) {
+
+        final String namespace = configMap.getMetadata().getNamespace();
+
+        //Run in order with the other work for the target application
+        final String shardKey = ResourceCache.key(namespace, target);
+
+        if (debouncer != null) {
+            //The target reconcile reads every ConfigMap for the target from the cache, so only the key matters. The
+            //latency is measured from the event, so includes the time held back.
+            final long received = System.nanoTime();
+            debouncer.add(shardKey, () -> add(shardKey, "Target/" + shardKey, received, () -> operator.reconcileTarget(namespace, target)));
+        } else {
+            add(shardKey, "ConfigMap/" + ResourceCache.key(namespace, configMap.getMetadata().getName()) + "/" + target, System.nanoTime(),
+                    () -> operator.reconcile(action, configMap, target));
+        }
+    }
+
+    private void add(String shardKey, String key, long received, Runnable task) {
+        if (rollouts != null) {
+            rollouts.add(shardKey, key, received, task);
+        } else {
+            queue.add(shardKey, key, received, task);
+        }
+    }
+
+    /**
+     * Queue a reconcile of every cached ConfigMap, e.g. when this replica becomes the leader. Uses the cache so no list
+     * call is needed.
+     */
+    public void resync() {
+        resync(shardKey -> true);
+    }
+
+    /**
+     * Queue a reconcile of the cached ConfigMaps whose shard key matches, e.g. the ones for targets this replica has
+     * just taken over from another.
+     *
+     * @param shardKeyFilter Tests namespace/target of each ConfigMap
+     */
+    public void resync(Predicate<String> shardKeyFilter) {
+        int queued = 0;
+        for (ConfigMap configMap : cache.list()) {
+            if (labelValid(configMap)) {
+                for (String target : operator.getTargets(configMap)) {
+                    if (shardKeyFilter.test(ResourceCache.key(configMap.getMetadata().getNamespace(), target))) {
+                        enqueue(Action.MODIFIED, configMap, target);
+                        queued++;
+                    }
                 }
-            } catch (NoLabelException e) {
-                logger.warn(e.getMessage());
             }
         }
+        logger.debug("Resynced " + queued + " ConfigMap targets from " + cache.size() + " ConfigMaps");
     }
 
     /**
@@ -71,35 +209,36 @@ public class ConfigMapWatcher implements Watcher<ConfigMap>, Runnable {
      */
     @Override
     public void run() {
-        logger.info("Starting ConfigMapWatcher");
+        logger.info("Starting ConfigMapWatcher for " + filter);
 
-        final KubernetesClient client = new DefaultKubernetesClient();
+        watches.addAll(scope.watch("ConfigMaps", client.configMaps(), filter, cache, this));
+    }
 
-        client.configMaps().inNamespace(client.getNamespace()).watch(this);
+    /**
+     * Close the watches so that they don't reconnect
+     */
+    public void close() {
+        for (ResilientWatch<ConfigMap, ?> watch : watches) {
+            watch.close();
+        }
     }
 
 
     @Override
     public void onClose(KubernetesClientException e) {
         logger.info("Closing Watcher: " + this);
-        logger.info(e.getMessage());
+        if (e != null) {
+            logger.info(e.getMessage());
+        }
     }
 
     /**
      * Is the label valid according to the predicate that we're 'listening' to?
      *
-     * @param predictate label in the form of key=value e.g. streamzi.io/kind=ev
-     * @param configMap  ConfigMap to test
-     * @return true if the key=value label exists, false if not
+     * @param configMap ConfigMap to test
+     * @return true if the ConfigMap's labels match the selector, false if not
      */
-    private boolean labelValid(String predictate, ConfigMap configMap) {
-        String[] parts = predictate.split("=");
-        String labelKey = parts[0];
-        String labelValue = parts[1];
-
-        if (configMap.getMetadata().getLabels() != null && configMap.getMetadata().getLabels().containsKey(labelKey)) {
-            return configMap.getMetadata().getLabels().get(labelKey).equals(labelValue);
-        }
-        return false;
+    private boolean labelValid(ConfigMap configMap) {
+        return cmSelector.matches(configMap.getMetadata().getLabels());
     }
 }
@@ -4,71 +4,32 @@
  */
 package io.streamzi.ev.watcher;
 
-import io.fabric8.kubernetes.client.KubernetesClientException;
-import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.openshift.api.model.DeploymentConfig;
-import io.fabric8.openshift.client.DefaultOpenShiftClient;
 import io.fabric8.openshift.client.OpenShiftClient;
-import io.streamzi.ev.NoLabelException;
+import io.streamzi.ev.cache.ResourceCache;
 import io.streamzi.ev.operator.EnvironmentVariableOperator;
-import org.apache.logging.log4j.LogManager;
+import io.streamzi.ev.operator.Workload;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.WorkQueue;
 
-import java.util.Map;
+import java.util.List;
 
 /**
- * Watch for changes in a ConfigMap and push them to an EnvironmentVariableOperator for applying changes to the Environment Variables of containers
+ * Watch for changes in a DeploymentConfig and push them to an EnvironmentVariableOperator which will look to see if any
+ * ConfigMaps contain Environment Variables that should be copied into this DeploymentConfig
  */
-public class DeploymentConfigWatcher implements Watcher<DeploymentConfig>, Runnable {
+public class DeploymentConfigWatcher extends WorkloadWatcher<DeploymentConfig> {
 
-    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(DeploymentConfigWatcher.class);
+    //Client shared with the rest of the operator
+    private final OpenShiftClient client;
 
-    //EnvironmentVariableOperator for updating Environment variables
-    private EnvironmentVariableOperator<DeploymentConfig> operator;
-
-
-    public DeploymentConfigWatcher(EnvironmentVariableOperator<DeploymentConfig> operator) {
-        this.operator = operator;
-    }
-
-    @Override
-    public void eventReceived(Action action, DeploymentConfig dc) {
-
-        final Map<String, String> labels = dc.getMetadata().getLabels();
-        final String name = dc.getMetadata().getName();
-        logger.info("DeploymentConfig watch received event " + action + " on map " + name + " with labels" + labels);
-
-        try {
-            switch (action) {
-                case ADDED:
-                    operator.onAdded(dc);
-                    break;
-                case MODIFIED:
-                    operator.onModified(dc);
-                    break;
-                case DELETED:
-                    operator.onDeleted(dc);
-                    break;
-                case ERROR:
-                    logger.warn("Watch received action=ERROR for DeploymentConfig " + name);
-            }
-        } catch (NoLabelException e) {
-            logger.warn(e.getMessage());
-        }
-
-
-    }
-
-    @Override
-    public void run() {
-        logger.info("Starting DeploymentConfigWatcher");
-
-        final OpenShiftClient osClient = new DefaultOpenShiftClient();
-        osClient.deploymentConfigs().inNamespace(osClient.getNamespace()).watch(this);
+    public DeploymentConfigWatcher(OpenShiftClient client, EnvironmentVariableOperator<DeploymentConfig> operator, ResourceCache<DeploymentConfig> cache, WorkQueue queue, WriteTracker writes, WatchScope scope) {
+        super(Workload.DEPLOYMENT_CONFIG, operator, cache, queue, writes, scope);
+        this.client = client;
     }
 
     @Override
-    public void onClose(KubernetesClientException e) {
-        logger.info("Closing Watcher: " + this);
-        logger.info(e.getMessage());
+    protected List<? extends ResilientWatch<DeploymentConfig, ?>> watch(ResourceFilter filter) {
+        return scope.watch("DeploymentConfigs", client.deploymentConfigs(), filter, cache, this);
     }
 }
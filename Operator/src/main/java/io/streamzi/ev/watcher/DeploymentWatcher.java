@@ -5,71 +5,31 @@
 package io.streamzi.ev.watcher;
 
 import io.fabric8.kubernetes.api.model.extensions.Deployment;
-import io.fabric8.kubernetes.client.KubernetesClientException;
-import io.fabric8.kubernetes.client.Watcher;
-import io.fabric8.openshift.client.DefaultOpenShiftClient;
 import io.fabric8.openshift.client.OpenShiftClient;
-import io.streamzi.ev.NoLabelException;
+import io.streamzi.ev.cache.ResourceCache;
 import io.streamzi.ev.operator.EnvironmentVariableOperator;
-import org.apache.logging.log4j.LogManager;
+import io.streamzi.ev.operator.Workload;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.WorkQueue;
 
-import java.util.Map;
+import java.util.List;
 
 /**
  * Watch for changes in a Deployment and push them to an EnvironmentVariableOperator which will look to see if any
  * ConfigMaps contain Environment Variables that should be copied into this deployment
  */
-public class DeploymentWatcher implements Watcher<Deployment>, Runnable {
+public class DeploymentWatcher extends WorkloadWatcher<Deployment> {
 
-    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(DeploymentWatcher.class);
+    //Client shared with the rest of the operator
+    private final OpenShiftClient client;
 
-    //EnvironmentVariableOperator for updating Environment variables
-    private EnvironmentVariableOperator<Deployment> operator;
-
-
-    public DeploymentWatcher(EnvironmentVariableOperator<Deployment> operator) {
-        this.operator = operator;
-    }
-
-    @Override
-    public void eventReceived(Action action, Deployment dc) {
-
-        final Map<String, String> labels = dc.getMetadata().getLabels();
-        final String name = dc.getMetadata().getName();
-        logger.info("Deployment watch received event " + action + " on map " + name + " with labels" + labels);
-
-        try {
-            switch (action) {
-                case ADDED:
-                    operator.onAdded(dc);
-                    break;
-                case MODIFIED:
-                    operator.onModified(dc);
-                    break;
-                case DELETED:
-                    operator.onDeleted(dc);
-                    break;
-                case ERROR:
-                    logger.warn("Watch received action=ERROR for Deployment " + name);
-            }
-        } catch (NoLabelException e) {
-            logger.warn(e.getMessage());
-        }
-
-
-    }
-
-    @Override
-    public void run() {
-        logger.info("Starting DeploymentWatcher");
-
-        final OpenShiftClient osClient = new DefaultOpenShiftClient();
-        osClient.extensions().deployments().inNamespace(osClient.getNamespace()).watch(this);
+    public DeploymentWatcher(OpenShiftClient client, EnvironmentVariableOperator<Deployment> operator, ResourceCache<Deployment> cache, WorkQueue queue, WriteTracker writes, WatchScope scope) {
+        super(Workload.DEPLOYMENT, operator, cache, queue, writes, scope);
+        this.client = client;
     }
 
     @Override
-    public void onClose(KubernetesClientException e) {
-        logger.info("Closing Watcher: " + this);
-        logger.info(e.getMessage());
+    protected List<? extends ResilientWatch<Deployment, ?>> watch(ResourceFilter filter) {
+        return scope.watch("Deployments", client.extensions().deployments(), filter, cache, this);
     }
 }
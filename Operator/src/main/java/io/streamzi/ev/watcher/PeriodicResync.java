@@ -0,0 +1,63 @@
+package io.streamzi.ev.watcher;
+
+import io.streamzi.ev.queue.WorkQueue;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Reconciles everything in the caches again over a resync period, to repair any drift that no event was received for.
+ * <p>
+ * The shard keys are split into slices by hash and each run resyncs one slice, so the work is spread evenly over the
+ * period instead of arriving at the WorkQueue, and the API server, all at once. The resync reads from the caches so it
+ * only causes a write where a workload really differs from its ConfigMaps.
+ */
+public class PeriodicResync implements Runnable {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(PeriodicResync.class);
+
+    private final WorkQueue queue;
+
+    private final int slices;
+
+    private final List<Consumer<Predicate<String>>> resyncs;
+
+    private int next;
+
+    /**
+     * @param queue   Queue the resyncs are added to. Nothing is resynced while it is inactive.
+     * @param slices  Number of runs it takes to resync everything once
+     * @param resyncs Resync functions of the watchers, taking a filter on shard keys
+     */
+    @SafeVarargs
+    public PeriodicResync(WorkQueue queue, int slices, Consumer<Predicate<String>>... resyncs) {
+        this.queue = queue;
+        this.slices = slices;
+        this.resyncs = new ArrayList<>(resyncs.length);
+        for (Consumer<Predicate<String>> resync : resyncs) {
+            this.resyncs.add(resync);
+        }
+    }
+
+    /**
+     * Resync the next slice. Schedule every resync period / slices.
+     */
+    @Override
+    public synchronized void run() {
+        if (!queue.isActive()) {
+            return;
+        }
+
+        final int slice = next;
+        next = (next + 1) % slices;
+
+        final long before = queue.getAdded();
+        for (Consumer<Predicate<String>> resync : resyncs) {
+            resync.accept(shardKey -> (shardKey.hashCode() & Integer.MAX_VALUE) % slices == slice);
+        }
+        logger.debug("Periodic resync of slice " + slice + " of " + slices + " queued " + (queue.getAdded() - before) + " reconciles");
+    }
+}
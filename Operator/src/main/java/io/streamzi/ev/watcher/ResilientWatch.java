@@ -0,0 +1,235 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.FilterWatchListDeletable;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A watch on one namespace, or the whole cluster, that reconnects when it is closed.
+ * <p>
+ * The resourceVersion of the last event received is remembered so that a new watch carries on from where the old one
+ * stopped and only the changes made in between are received. If the API server no longer has that version (410 Gone)
+ * the resources are listed again and compared with the cache, so that the events that were missed are passed on
+ * before watching from the version of the list.
+ */
+public class ResilientWatch<T extends HasMetadata, L extends KubernetesResourceList<?>> implements Watcher<T> {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(ResilientWatch.class);
+
+    private static final int HTTP_GONE = 410;
+
+    private static final long MIN_BACKOFF_MILLIS = 500;
+
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    //A watch that stays open this long was healthy, so the next reconnect starts again from the minimum backoff
+    private static final long STABLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    //Shared by every watch as reconnecting is rare and quick
+    private static final ScheduledExecutorService reconnects = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "watch-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String kind;
+
+    private final String description;
+
+    private final FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>> resources;
+
+    //Namespace being watched, or null for the whole cluster
+    private final String namespace;
+
+    private final ResourceCache<T> cache;
+
+    private final Watcher<T> delegate;
+
+    private volatile String lastResourceVersion;
+
+    private volatile boolean relistNeeded;
+
+    private volatile boolean closed;
+
+    private volatile Watch watch;
+
+    //Guarded by this
+    private long backoffMillis = MIN_BACKOFF_MILLIS;
+
+    //System.nanoTime() when the current watch was opened, 0 if it isn't open. Guarded by this.
+    private long connectedAt;
+
+    /**
+     * @param kind      e.g. Deployments
+     * @param resources Operation to list and watch the resources with
+     * @param namespace Namespace of the operation, or null for the whole cluster
+     * @param cache     Cache kept up to date by the delegate, compared with a new list after a 410
+     * @param delegate  Receives the events
+     */
+    public ResilientWatch(String kind, FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>> resources,
+                          String namespace, ResourceCache<T> cache, Watcher<T> delegate) {
+        this.kind = kind;
+        this.description = kind + " in " + (namespace != null ? namespace : "all namespaces");
+        this.resources = resources;
+        this.namespace = namespace;
+        this.cache = cache;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Start watching. Without a resourceVersion the API server starts with an ADDED event for every existing resource.
+     */
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Start watching from the resourceVersion of a list of the resources, so that only the changes since are received
+     *
+     * @param resourceVersion Version to start from, or null to receive every existing resource
+     */
+    public void start(String resourceVersion) {
+        lastResourceVersion = resourceVersion;
+        logger.info("Watching " + description + (resourceVersion != null ? " from resourceVersion " + resourceVersion : ""));
+        connect();
+    }
+
+    /**
+     * Stop watching and don't reconnect
+     */
+    public void close() {
+        closed = true;
+        final Watch current = watch;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * @return Namespace being watched, or null for the whole cluster
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getLastResourceVersion() {
+        return lastResourceVersion;
+    }
+
+    @Override
+    public void eventReceived(Action action, T resource) {
+        if (resource.getMetadata() != null && resource.getMetadata().getResourceVersion() != null) {
+            lastResourceVersion = resource.getMetadata().getResourceVersion();
+        }
+        delegate.eventReceived(action, resource);
+    }
+
+    @Override
+    public void onClose(KubernetesClientException e) {
+        if (closed) {
+            delegate.onClose(e);
+            return;
+        }
+
+        if (e != null && e.getCode() == HTTP_GONE) {
+            logger.warn("Watch of " + description + " expired at resourceVersion " + lastResourceVersion + ", relisting");
+            relistNeeded = true;
+        } else {
+            logger.warn("Watch of " + description + " closed" + (e != null ? ": " + e.getMessage() : "") + ", reconnecting from resourceVersion " + lastResourceVersion);
+        }
+        Metrics.watchReconnect(kind, relistNeeded);
+        //A server that accepts the watch and closes it straight away is retried ever more slowly
+        final long delay = nextBackoff();
+        reconnects.schedule(this::connect, relistNeeded ? 0 : delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void connect() {
+        if (closed) {
+            return;
+        }
+
+        try {
+            if (relistNeeded) {
+                relist();
+                relistNeeded = false;
+            }
+            watch = lastResourceVersion == null ? resources.watch(this) : resources.withResourceVersion(lastResourceVersion).watch(this);
+            connectedAt = System.nanoTime();
+        } catch (KubernetesClientException e) {
+            final long delay = nextBackoff();
+            if (e.getCode() == HTTP_GONE) {
+                logger.warn("resourceVersion " + lastResourceVersion + " of " + description + " has expired, relisting");
+                relistNeeded = true;
+            } else {
+                logger.warn("Failed to watch " + description + ", retrying in " + delay + "ms: " + e.getMessage());
+            }
+            reconnects.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            //e.g. a malformed item in the relist. Without a reconnect scheduled the watch would be gone for good.
+            final long delay = nextBackoff();
+            logger.error("Failed to watch " + description + ", retrying in " + delay + "ms", e);
+            reconnects.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /*
+     * Delay before the next attempt to connect, doubling each time unless the watch has stayed open for a while
+     */
+    private synchronized long nextBackoff() {
+        if (connectedAt != 0 && System.nanoTime() - connectedAt >= STABLE_NANOS) {
+            backoffMillis = MIN_BACKOFF_MILLIS;
+        }
+        connectedAt = 0;
+        final long delay = backoffMillis;
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        return delay;
+    }
+
+    /*
+     * List the resources and pass on the difference from the cache as events
+     */
+    @SuppressWarnings("unchecked")
+    private void relist() {
+
+        final L list = resources.list();
+        final Set<String> listed = new HashSet<>();
+        int changed = 0;
+
+        for (T resource : (List<T>) list.getItems()) {
+            final String key = ResourceCache.key(resource);
+            listed.add(key);
+
+            final T cached = cache.get(resource.getMetadata().getNamespace(), resource.getMetadata().getName());
+            if (cached == null) {
+                delegate.eventReceived(Action.ADDED, resource);
+                changed++;
+            } else if (!resource.getMetadata().getResourceVersion().equals(cached.getMetadata().getResourceVersion())) {
+                delegate.eventReceived(Action.MODIFIED, resource);
+                changed++;
+            }
+        }
+
+        for (T cached : namespace == null ? cache.list() : cache.list(namespace)) {
+            if (!listed.contains(ResourceCache.key(cached))) {
+                delegate.eventReceived(Action.DELETED, cached);
+                changed++;
+            }
+        }
+
+        lastResourceVersion = list.getMetadata().getResourceVersion();
+        logger.info("Relisted " + listed.size() + " " + description + ", " + changed + " changed while the watch was down");
+    }
+}
@@ -0,0 +1,72 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.FilterWatchListDeletable;
+import io.streamzi.ev.operator.LabelSelector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Label and field selectors sent to the API server with every list and watch of a kind of resource, so that the
+ * resources the operator isn't interested in are never sent to it.
+ */
+public class ResourceFilter {
+
+    public static final ResourceFilter NONE = new ResourceFilter(null, null);
+
+    //null to not filter by label
+    private final LabelSelector labels;
+
+    private final Map<String, String> fields;
+
+    /**
+     * @param labelSelector e.g. streamzi.io/kind=ev, or null
+     * @param fieldSelector e.g. metadata.name=consumer, or null. Only equality is supported.
+     * @throws IllegalArgumentException if either selector can't be parsed
+     */
+    public ResourceFilter(String labelSelector, String fieldSelector) {
+        this.labels = labelSelector == null || labelSelector.trim().isEmpty() ? null : LabelSelector.parse(labelSelector);
+        this.fields = parseFields(fieldSelector);
+    }
+
+    /**
+     * @param resources Operation for one namespace or all namespaces
+     * @return The operation with the selectors added
+     */
+    public <T, L> FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>> apply(FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>> resources) {
+        final FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>> labelled = labels != null ? labels.applyTo(resources) : resources;
+        return fields.isEmpty() ? labelled : labelled.withFields(fields);
+    }
+
+    @Override
+    public String toString() {
+        if (labels == null && fields.isEmpty()) {
+            return "no selector";
+        }
+        return (labels != null ? "labels " + labels : "") + (labels != null && !fields.isEmpty() ? " and " : "") + (!fields.isEmpty() ? "fields " + fields : "");
+    }
+
+    private static Map<String, String> parseFields(String fieldSelector) {
+        if (fieldSelector == null || fieldSelector.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> fields = new LinkedHashMap<>();
+        for (String term : fieldSelector.split(",")) {
+            final String trimmed = term.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int equals = trimmed.indexOf('=');
+            if (equals <= 0 || trimmed.contains("!=")) {
+                throw new IllegalArgumentException("Invalid field selector term '" + trimmed + "' in '" + fieldSelector + "', only field=value is supported");
+            }
+            //Both = and == mean equals
+            final int value = trimmed.startsWith("==", equals) ? equals + 2 : equals + 1;
+            fields.put(trimmed.substring(0, equals).trim(), trimmed.substring(value).trim());
+        }
+        return Collections.unmodifiableMap(fields);
+    }
+}
@@ -0,0 +1,118 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.FilterWatchListDeletable;
+import io.fabric8.kubernetes.client.dsl.Operation;
+import io.streamzi.ev.cache.ResourceCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The namespaces that the operator lists and watches. Either a fixed set of namespaces or every namespace in the
+ * cluster.
+ * <p>
+ * The resourceVersion of each list is remembered so that the watches started afterwards carry on from the list rather
+ * than receiving every resource again as ADDED.
+ */
+public class WatchScope {
+
+    public static final String ALL_NAMESPACES = "*";
+
+    private final List<String> namespaces;
+
+    //kind/namespace -> resourceVersion of the list, with * as the namespace of a cluster wide list
+    private final ConcurrentMap<String, String> listed = new ConcurrentHashMap<>();
+
+    /**
+     * @param namespaces Namespaces to watch. A single entry of {@link #ALL_NAMESPACES} watches the whole cluster.
+     */
+    public WatchScope(List<String> namespaces) {
+        this.namespaces = Collections.unmodifiableList(new ArrayList<>(namespaces));
+    }
+
+    public boolean isAllNamespaces() {
+        return namespaces.contains(ALL_NAMESPACES);
+    }
+
+    public List<String> getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * @param resources Operation for a kind of resource e.g. client.configMaps()
+     * @param filter    Selectors for the API server to filter the resources with
+     * @return The operation narrowed to each namespace in scope, or a single cluster wide operation
+     */
+    public <T, L> List<FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> select(Operation<T, L, ?, ?> resources, ResourceFilter filter) {
+        final List<FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> selected = new ArrayList<>();
+        if (isAllNamespaces()) {
+            selected.add(filter.apply(resources.inAnyNamespace()));
+        } else {
+            for (String namespace : namespaces) {
+                selected.add(filter.apply(resources.inNamespace(namespace)));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @param kind      e.g. Deployments, the same as is later passed to {@link #watch}
+     * @param resources Operation for a kind of resource e.g. client.configMaps()
+     * @param filter    Selectors for the API server to filter the resources with
+     * @return Every resource of that kind in scope that matches the filter
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends HasMetadata, L extends KubernetesResourceList<?>> List<T> list(String kind, Operation<T, L, ?, ?> resources, ResourceFilter filter) {
+        final List<T> items = new ArrayList<>();
+        final List<FilterWatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> selected = select(resources, filter);
+        for (int i = 0; i < selected.size(); i++) {
+            final L list = selected.get(i).list();
+            //The model's lists implement the raw KubernetesResourceList, but hold the Operation's type
+            for (Object item : list.getItems()) {
+                items.add((T) item);
+            }
+            listed.put(kind + "/" + (isAllNamespaces() ? ALL_NAMESPACES : namespaces.get(i)), list.getMetadata().getResourceVersion());
+        }
+        return items;
+    }
+
+    /**
+     * Start a watch on each namespace in scope, or a single cluster wide watch. If the kind has been listed the watches
+     * start from the version of the list.
+     *
+     * @param kind      e.g. Deployments, for logging and metrics
+     * @param resources Operation for a kind of resource e.g. client.configMaps()
+     * @param filter    Selectors for the API server to filter the resources with. A resource that stops matching is
+     *                  received as DELETED.
+     * @param cache     Cache the watcher keeps up to date
+     * @param watcher   Receives the events from every watch
+     * @return The watches, to close on shutdown
+     */
+    public <T extends HasMetadata, L extends KubernetesResourceList<?>> List<ResilientWatch<T, L>> watch(String kind, Operation<T, L, ?, ?> resources, ResourceFilter filter,
+                                                                                                      ResourceCache<T> cache, Watcher<T> watcher) {
+        final List<ResilientWatch<T, L>> watches = new ArrayList<>();
+        if (isAllNamespaces()) {
+            watches.add(new ResilientWatch<>(kind, filter.apply(resources.inAnyNamespace()), null, cache, watcher));
+        } else {
+            for (String namespace : namespaces) {
+                watches.add(new ResilientWatch<>(kind, filter.apply(resources.inNamespace(namespace)), namespace, cache, watcher));
+            }
+        }
+        for (ResilientWatch<T, L> watch : watches) {
+            watch.start(listed.remove(kind + "/" + (watch.getNamespace() != null ? watch.getNamespace() : ALL_NAMESPACES)));
+        }
+        return watches;
+    }
+
+    @Override
+    public String toString() {
+        return isAllNamespaces() ? "all namespaces" : "namespaces " + namespaces;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017-2018, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watcher;
+import io.streamzi.ev.NoLabelException;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.operator.EnvironmentVariableOperator;
+import io.streamzi.ev.operator.Workload;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.WorkQueue;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Watch for changes in a kind of workload and push them to an EnvironmentVariableOperator which will look to see if any
+ * ConfigMaps contain Environment Variables that should be copied into the workload.
+ * <p>
+ * The events are applied to the cache and passed through the WorkQueue. MODIFIED events that can't require any change
+ * to the Environment Variables, the echoes of the operators' own writes and status updates, are dropped.
+ */
+public abstract class WorkloadWatcher<T extends HasMetadata> implements Watcher<T>, Runnable {
+
+    private final static org.apache.logging.log4j.Logger logger = LogManager.getLogger(WorkloadWatcher.class);
+
+    private final Workload<T> workload;
+
+    //EnvironmentVariableOperator for updating Environment variables
+    private final EnvironmentVariableOperator<T> operator;
+
+    //Local copy of the workloads that is kept up to date from this watch
+    protected final ResourceCache<T> cache;
+
+    //Queue that the operator is called from so that bursts of events are coalesced
+    private final WorkQueue queue;
+
+    //Namespaces to watch
+    protected final WatchScope scope;
+
+    //One watch per namespace, each reconnecting from the last resourceVersion it received
+    private final List<ResilientWatch<T, ?>> watches = new CopyOnWriteArrayList<>();
+
+    //Recognises the events caused by the operators' own writes
+    private final WriteTracker writes;
+
+    //Selectors for the API server, so that only the workloads the operator manages are received
+    private ResourceFilter filter = ResourceFilter.NONE;
+
+
+    protected WorkloadWatcher(Workload<T> workload, EnvironmentVariableOperator<T> operator, ResourceCache<T> cache, WorkQueue queue, WriteTracker writes, WatchScope scope) {
+        this.workload = workload;
+        this.operator = operator;
+        this.cache = cache;
+        this.queue = queue;
+        this.scope = scope;
+        this.writes = writes;
+    }
+
+    /**
+     * Start a watch on each namespace in scope
+     *
+     * @param filter Selectors for the API server
+     * @return The watches, to close on shutdown
+     */
+    protected abstract List<? extends ResilientWatch<T, ?>> watch(ResourceFilter filter);
+
+    @Override
+    public void eventReceived(Action action, T resource) {
+
+        final T previous = cache.apply(action, resource);
+
+        final Map<String, String> labels = resource.getMetadata().getLabels();
+        final String name = resource.getMetadata().getName();
+
+        //Our own writes and status updates can't require any changes to the Environment Variables. A change to the labels
+        //doesn't bump the generation but can change which ConfigMaps select the workload.
+        if (action == Action.MODIFIED && (writes.isOwnWrite(resource)
+                || isTargetingUnchanged(workload, previous, resource) && writes.isSpecUnchanged(previous, resource))) {
+            logger.debug("Ignoring " + workload + " event " + action + " on " + name + " as the spec and labels have not changed since it was last reconciled");
+            return;
+        }
+        if (action == Action.DELETED) {
+            writes.forget(resource);
+        }
+
+        logger.info(workload + " watch received event " + action + " on " + name + " with labels" + labels);
+
+        queue.add(ResourceCache.key(resource), workload + "/" + ResourceCache.key(resource), () -> dispatch(action, resource));
+    }
+
+    /**
+     * @param previous Version of the workload held in the cache before the event, or null
+     * @param received Workload received by the watch
+     * @return true if the workload has the same labels, which target selectors match, and the same container names,
+     * which the streamzi.io/containers annotation names
+     */
+    static <T extends HasMetadata> boolean isTargetingUnchanged(Workload<T> workload, T previous, T received) {
+        if (previous == null || !Objects.equals(labels(previous), labels(received))) {
+            return false;
+        }
+        final List<Container> before = workload.getContainers(previous);
+        final List<Container> after = workload.getContainers(received);
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < before.size(); i++) {
+            if (!Objects.equals(before.get(i).getName(), after.get(i).getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Missing and empty labels select the same ConfigMaps
+    private static Map<String, String> labels(HasMetadata resource) {
+        final Map<String, String> labels = resource.getMetadata().getLabels();
+        return labels != null ? labels : Collections.emptyMap();
+    }
+
+    /*
+     * Called from the WorkQueue with the most recent event for the workload
+     */
+    private void dispatch(Action action, T resource) {
+
+        final String name = resource.getMetadata().getName();
+
+        try {
+            switch (action) {
+                case ADDED:
+                    operator.onAdded(resource);
+                    break;
+                case MODIFIED:
+                    operator.onModified(resource);
+                    break;
+                case DELETED:
+                    operator.onDeleted(resource);
+                    break;
+                case ERROR:
+                    logger.warn("Watch received action=ERROR for " + workload + " " + name);
+            }
+        } catch (NoLabelException e) {
+            logger.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Only list and watch the workloads that match the filter. Must be called before the watcher is started.
+     *
+     * @param filter Label and field selectors for the API server
+     */
+    public void setFilter(ResourceFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Queue a reconcile of every cached workload, e.g. when this replica becomes the leader. Uses the cache so no list
+     * call is needed.
+     */
+    public void resync() {
+        resync(shardKey -> true);
+    }
+
+    /**
+     * Queue a reconcile of the cached workloads whose shard key matches, e.g. the ones this replica has just taken
+     * over from another.
+     *
+     * @param shardKeyFilter Tests namespace/name of each workload
+     */
+    public void resync(Predicate<String> shardKeyFilter) {
+        int queued = 0;
+        for (T resource : cache.list()) {
+            final String shardKey = ResourceCache.key(resource);
+            if (shardKeyFilter.test(shardKey)) {
+                queue.add(shardKey, workload + "/" + shardKey, () -> dispatch(Action.MODIFIED, resource));
+                queued++;
+            }
+        }
+        logger.debug("Resynced " + queued + " of " + cache.size() + " " + workload + "s");
+    }
+
+    @Override
+    public void run() {
+        logger.info("Starting " + getClass().getSimpleName() + " for " + filter);
+
+        watches.addAll(watch(filter));
+    }
+
+    /**
+     * Close the watches so that they don't reconnect
+     */
+    public void close() {
+        for (ResilientWatch<T, ?> watch : watches) {
+            watch.close();
+        }
+    }
+
+    @Override
+    public void onClose(KubernetesClientException e) {
+        logger.info("Closing Watcher: " + this);
+        if (e != null) {
+            logger.info(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.streamzi.ev.nativeimage;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapList;
+import io.fabric8.kubernetes.api.model.Status;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentList;
+import io.fabric8.kubernetes.internal.KubernetesDeserializer;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.fabric8.openshift.api.model.DeploymentConfigList;
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Registers the fabric8 model classes that Jackson reads and writes for reflection, so that the native image can read
+ * the lists, watch events and patch responses.
+ * <p>
+ * The classes are found by walking the fields of the resources the operator handles, and the serialisers named in
+ * their annotations, rather than being listed by hand, so the configuration follows the fabric8 version.
+ */
+public class ModelReflectionFeature implements Feature {
+
+    private static final Class<?>[] ROOTS = {
+            ConfigMap.class, ConfigMapList.class,
+            Deployment.class, DeploymentList.class,
+            DeploymentConfig.class, DeploymentConfigList.class,
+            WatchEvent.class, Status.class,
+            KubernetesDeserializer.class
+    };
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+
+        final Set<Class<?>> registered = new HashSet<>();
+        final Deque<Class<?>> pending = new ArrayDeque<>(Arrays.asList(ROOTS));
+
+        while (!pending.isEmpty()) {
+            final Class<?> type = pending.pop();
+            if (!type.getName().startsWith("io.fabric8.") || !registered.add(type)) {
+                continue;
+            }
+
+            RuntimeReflection.register(type);
+            RuntimeReflection.register(type.getDeclaredConstructors());
+            RuntimeReflection.register(type.getDeclaredMethods());
+            RuntimeReflection.register(type.getDeclaredFields());
+
+            serialisers(type, pending);
+            for (Field field : type.getDeclaredFields()) {
+                collect(field.getGenericType(), pending);
+                serialisers(field, pending);
+            }
+            for (Method method : type.getDeclaredMethods()) {
+                serialisers(method, pending);
+            }
+            if (type.getSuperclass() != null) {
+                pending.add(type.getSuperclass());
+            }
+            pending.addAll(Arrays.asList(type.getInterfaces()));
+            pending.addAll(Arrays.asList(type.getDeclaredClasses()));
+        }
+    }
+
+    private static void collect(Type type, Deque<Class<?>> pending) {
+        if (type instanceof Class) {
+            final Class<?> cls = (Class<?>) type;
+            pending.add(cls.isArray() ? cls.getComponentType() : cls);
+        } else if (type instanceof ParameterizedType) {
+            collect(((ParameterizedType) type).getRawType(), pending);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                collect(argument, pending);
+            }
+        }
+    }
+
+    /*
+     * Jackson creates the serialisers and deserialisers named in annotations reflectively
+     */
+    private static void serialisers(AnnotatedElement element, Deque<Class<?>> pending) {
+        final JsonDeserialize deserialize = element.getAnnotation(JsonDeserialize.class);
+        if (deserialize != null) {
+            pending.add(deserialize.using());
+            pending.add(deserialize.as());
+            pending.add(deserialize.contentAs());
+        }
+        final JsonSerialize serialize = element.getAnnotation(JsonSerialize.class);
+        if (serialize != null) {
+            pending.add(serialize.using());
+            pending.add(serialize.as());
+        }
+    }
+}
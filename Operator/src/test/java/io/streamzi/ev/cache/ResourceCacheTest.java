@@ -0,0 +1,99 @@
+package io.streamzi.ev.cache;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.client.Watcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceCacheTest {
+
+    private ResourceCache<ConfigMap> cache;
+
+    @Before
+    public void setUp() {
+        cache = new ResourceCache<>();
+        cache.addIndex("app", cm -> cm.getMetadata().getLabels() != null ? cm.getMetadata().getLabels().get("app") : null);
+        cache.addMultiIndex("keys", cm -> cm.getData() != null ? cm.getData().keySet() : Collections.emptyList());
+    }
+
+    @Test
+    public void eventsAddReplaceAndRemove() {
+        final ConfigMap first = configMap("myproject", "a", "consumer", "x");
+        final ConfigMap second = configMap("myproject", "a", "consumer", "y");
+
+        assertNull(cache.apply(Watcher.Action.ADDED, first));
+        assertSame(first, cache.apply(Watcher.Action.MODIFIED, second));
+        assertSame(second, cache.get("myproject", "a"));
+
+        assertSame(second, cache.apply(Watcher.Action.DELETED, second));
+        assertNull(cache.get("myproject", "a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void indexFollowsChanges() {
+        cache.apply(Watcher.Action.ADDED, configMap("myproject", "a", "consumer", "x"));
+        cache.apply(Watcher.Action.ADDED, configMap("myproject", "b", "consumer", "y"));
+        assertEquals(2, cache.byIndex("app", "consumer").size());
+
+        //Moving to another value removes the old entry
+        final ConfigMap moved = configMap("myproject", "a", "producer", "x");
+        cache.apply(Watcher.Action.MODIFIED, moved);
+        assertEquals(Collections.singletonList(moved), cache.byIndex("app", "producer"));
+        assertEquals(1, cache.byIndex("app", "consumer").size());
+
+        //A resource without an index value isn't indexed
+        cache.apply(Watcher.Action.MODIFIED, configMap("myproject", "b", null, "y"));
+        assertTrue(cache.byIndex("app", "consumer").isEmpty());
+
+        cache.apply(Watcher.Action.DELETED, moved);
+        assertTrue(cache.byIndex("app", "producer").isEmpty());
+    }
+
+    @Test
+    public void multiIndexHasAnEntryPerValue() {
+        final ConfigMap configMap = configMap("myproject", "a", "consumer", "x", "y");
+        cache.apply(Watcher.Action.ADDED, configMap);
+        assertEquals(Collections.singletonList(configMap), cache.byIndex("keys", "x"));
+        assertEquals(Collections.singletonList(configMap), cache.byIndex("keys", "y"));
+
+        cache.apply(Watcher.Action.MODIFIED, configMap("myproject", "a", "consumer", "y"));
+        assertTrue(cache.byIndex("keys", "x").isEmpty());
+        assertEquals(1, cache.byIndex("keys", "y").size());
+    }
+
+    @Test
+    public void replaceRemovesWhatWasNotListed() {
+        cache.apply(Watcher.Action.ADDED, configMap("myproject", "a", "consumer", "x"));
+        cache.apply(Watcher.Action.ADDED, configMap("myproject", "b", "consumer", "y"));
+
+        final ConfigMap listed = configMap("myproject", "b", "producer", "y");
+        cache.replace(Arrays.asList(listed, configMap("other", "c", "producer", "z")));
+
+        assertNull(cache.get("myproject", "a"));
+        assertSame(listed, cache.get("myproject", "b"));
+        assertTrue(cache.byIndex("app", "consumer").isEmpty());
+        assertEquals(2, cache.byIndex("app", "producer").size());
+        assertEquals(Collections.singletonList(listed), cache.list("myproject"));
+    }
+
+    private static ConfigMap configMap(String namespace, String name, String app, String... keys) {
+        final ConfigMapBuilder builder = new ConfigMapBuilder().withNewMetadata().withNamespace(namespace).withName(name).endMetadata();
+        if (app != null) {
+            builder.editMetadata().addToLabels("app", app).endMetadata();
+        }
+        for (String key : keys) {
+            builder.addToData(key, "value");
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,76 @@
+package io.streamzi.ev.checkpoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsSurviveAReopen() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("checkpoint");
+        try (Checkpoint checkpoint = Checkpoint.open(file)) {
+            checkpoint.record("Deployment/myproject/consumer", 1);
+            checkpoint.record("Deployment/myproject/producer", 2);
+            checkpoint.record("Deployment/myproject/consumer", 3);
+            checkpoint.forget("Deployment/myproject/producer");
+            checkpoint.flush();
+        }
+
+        try (Checkpoint checkpoint = Checkpoint.open(file)) {
+            assertTrue(checkpoint.isUnchanged("Deployment/myproject/consumer", 3));
+            assertFalse(checkpoint.isUnchanged("Deployment/myproject/producer", 2));
+        }
+        //Compacted when opened
+        assertEquals(1, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void recordsSurviveCompactionWhileAppending() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("checkpoint");
+        try (Checkpoint checkpoint = Checkpoint.open(file)) {
+            for (int i = 0; i < 20001; i++) {
+                checkpoint.record("Deployment/myproject/consumer", i);
+            }
+            checkpoint.flush();
+            assertTrue(Files.readAllLines(file).size() < 20001);
+        }
+
+        try (Checkpoint checkpoint = Checkpoint.open(file)) {
+            assertTrue(checkpoint.isUnchanged("Deployment/myproject/consumer", 20000));
+        }
+    }
+
+    @Test
+    public void failedCompactionKeepsWriting() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("checkpoint");
+        try (Checkpoint checkpoint = Checkpoint.open(file)) {
+            //A non-empty directory where the compacted file would be written
+            final Path blocked = Files.createDirectories(file.resolveSibling("checkpoint.tmp"));
+            Files.createFile(blocked.resolve("x"));
+
+            for (int i = 0; i < 20001; i++) {
+                checkpoint.record("Deployment/myproject/consumer", i);
+            }
+            checkpoint.flush();
+
+            Files.delete(blocked.resolve("x"));
+            Files.delete(blocked);
+        }
+
+        try (Checkpoint checkpoint = Checkpoint.open(file)) {
+            assertTrue(checkpoint.isUnchanged("Deployment/myproject/consumer", 20000));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.streamzi.ev.election;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingTest {
+
+    private static final int KEYS = 30000;
+
+    @Test
+    public void keysAreSpreadEvenly() {
+        final HashRing ring = new HashRing(Arrays.asList("operator-0", "operator-1", "operator-2"));
+
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.owner("namespace-" + i), 1, Integer::sum);
+        }
+
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Unbalanced " + counts, count > KEYS / 3 * 0.7 && count < KEYS / 3 * 1.3);
+        }
+    }
+
+    @Test
+    public void joiningMemberOnlyTakesKeys() {
+        final HashRing before = new HashRing(Arrays.asList("operator-0", "operator-1", "operator-2"));
+        final HashRing after = new HashRing(Arrays.asList("operator-0", "operator-1", "operator-2", "operator-3"));
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final String key = "namespace-" + i;
+            if (!before.owner(key).equals(after.owner(key))) {
+                assertEquals("operator-3", after.owner(key));
+                moved++;
+            }
+        }
+        //A quarter of the keys should move, allow for the spread
+        assertTrue("Moved " + moved, moved > KEYS / 4 * 0.7 && moved < KEYS / 4 * 1.3);
+    }
+
+    @Test
+    public void leavingMemberOnlyGivesUpItsKeys() {
+        final HashRing before = new HashRing(Arrays.asList("operator-0", "operator-1", "operator-2"));
+        final HashRing after = new HashRing(Arrays.asList("operator-0", "operator-2"));
+
+        for (int i = 0; i < KEYS; i++) {
+            final String key = "namespace-" + i;
+            if (!before.owner(key).equals("operator-1")) {
+                assertEquals(before.owner(key), after.owner(key));
+            }
+        }
+    }
+
+    @Test
+    public void ownerDoesNotDependOnMemberOrder() {
+        final HashRing ring = new HashRing(Arrays.asList("operator-0", "operator-1"));
+        final HashRing reversed = new HashRing(Arrays.asList("operator-1", "operator-0"));
+
+        assertEquals(ring, reversed);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.owner("namespace-" + i), reversed.owner("namespace-" + i));
+        }
+    }
+
+    @Test
+    public void emptyRingOwnsNothing() {
+        final HashRing empty = new HashRing(Collections.emptySet());
+
+        assertNull(empty.owner("namespace-0"));
+        assertNotEquals(empty, new HashRing(Collections.singleton("operator-0")));
+    }
+}
@@ -0,0 +1,236 @@
+package io.streamzi.ev.election;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfigBuilder;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LeaderElectorTest {
+
+    private static final long LEASE_MILLIS = 600;
+
+    private static final long RENEW_DEADLINE_MILLIS = 400;
+
+    private static final long RETRY_MILLIS = 50;
+
+    private final LockDispatcher lock = new LockDispatcher();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    private MockWebServer server;
+
+    private OpenShiftClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(lock);
+        server.start();
+        client = new DefaultOpenShiftClient(new OpenShiftConfigBuilder()
+                .withMasterUrl(server.url("/").toString())
+                .withDisableApiGroupCheck(true)
+                .build());
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join(5000);
+        }
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void acquiresTheLeaseWhenThereIsNoLock() throws InterruptedException {
+        final Candidate a = start("a");
+
+        //The callbacks are made just after the leadership changes
+        await(() -> a.started.get() == 1);
+        assertTrue(a.elector.isLeader());
+        assertEquals("a", lock.getRecord().holderIdentity);
+        assertEquals(0, lock.getRecord().leaderTransitions);
+    }
+
+    @Test
+    public void leaderRenewsTheLease() throws InterruptedException {
+        final Candidate a = start("a");
+        await(a.elector::isLeader);
+        final long version = lock.getVersion();
+        final String acquired = lock.getRecord().acquireTime;
+
+        Thread.sleep(LEASE_MILLIS * 2);
+
+        assertTrue(a.elector.isLeader());
+        assertTrue(lock.getVersion() > version);
+        assertEquals("a", lock.getRecord().holderIdentity);
+        assertEquals(acquired, lock.getRecord().acquireTime);
+        assertEquals(1, a.elector.getTransitions());
+        assertEquals(0, a.stopped.get());
+    }
+
+    @Test
+    public void candidateWaitsWhileTheLeaseIsRenewed() throws InterruptedException {
+        final Candidate a = start("a");
+        await(a.elector::isLeader);
+        final Candidate b = start("b");
+
+        Thread.sleep(LEASE_MILLIS * 3);
+
+        assertTrue(a.elector.isLeader());
+        assertFalse(b.elector.isLeader());
+        assertEquals(0, b.started.get());
+    }
+
+    @Test
+    public void candidateTakesOverAnExpiredLease() throws InterruptedException {
+        final Candidate a = start("a");
+        await(a.elector::isLeader);
+        final Candidate b = start("b");
+
+        //a goes away without releasing the lease
+        final long stopped = System.nanoTime();
+        a.thread.interrupt();
+        a.thread.join(5000);
+
+        await(b.elector::isLeader);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopped) >= LEASE_MILLIS - RETRY_MILLIS);
+        assertEquals("b", lock.getRecord().holderIdentity);
+        assertEquals(1, lock.getRecord().leaderTransitions);
+        assertEquals(1, a.stopped.get());
+    }
+
+    @Test
+    public void leaderStopsWhenItCannotRenew() throws InterruptedException {
+        final Candidate a = start("a");
+        await(a.elector::isLeader);
+
+        lock.setAvailable(false);
+
+        await(() -> a.stopped.get() == 1);
+        assertFalse(a.elector.isLeader());
+
+        lock.setAvailable(true);
+
+        await(() -> a.started.get() == 2);
+        assertTrue(a.elector.isLeader());
+    }
+
+    private Candidate start(String identity) {
+        final Candidate candidate = new Candidate(identity);
+        threads.add(candidate.thread);
+        candidate.thread.start();
+        return candidate;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private class Candidate {
+
+        final AtomicInteger started = new AtomicInteger();
+
+        final AtomicInteger stopped = new AtomicInteger();
+
+        final LeaderElector elector;
+
+        final Thread thread;
+
+        Candidate(String identity) {
+            elector = new LeaderElector(client, "myproject", "lock", identity,
+                    LEASE_MILLIS, RENEW_DEADLINE_MILLIS, RETRY_MILLIS, TimeUnit.MILLISECONDS,
+                    started::incrementAndGet, stopped::incrementAndGet);
+            thread = new Thread(elector, "elector-" + identity);
+        }
+    }
+
+    /*
+     * Stands in for the API server, holding the lock ConfigMap and rejecting an update made from an old resourceVersion
+     */
+    private static class LockDispatcher extends Dispatcher {
+
+        private static final String PATH = "/api/v1/namespaces/myproject/configmaps";
+
+        private ConfigMap configMap;
+
+        private long version;
+
+        private boolean available = true;
+
+        @Override
+        public synchronized MockResponse dispatch(RecordedRequest request) {
+            if (!available) {
+                return new MockResponse().setResponseCode(500);
+            }
+
+            final String method = request.getMethod();
+            if ("GET".equals(method) && request.getPath().equals(PATH + "/lock")) {
+                return configMap != null ? reply(200) : new MockResponse().setResponseCode(404);
+            }
+            if ("POST".equals(method) && request.getPath().equals(PATH)) {
+                if (configMap != null) {
+                    return new MockResponse().setResponseCode(409);
+                }
+                return store(request.getBody().readUtf8(), 201);
+            }
+            if ("PUT".equals(method) && request.getPath().equals(PATH + "/lock")) {
+                final String body = request.getBody().readUtf8();
+                if (configMap == null || !String.valueOf(version).equals(Serialization.unmarshal(body, ConfigMap.class).getMetadata().getResourceVersion())) {
+                    return new MockResponse().setResponseCode(409);
+                }
+                return store(body, 200);
+            }
+            return new MockResponse().setResponseCode(404);
+        }
+
+        synchronized void setAvailable(boolean available) {
+            this.available = available;
+        }
+
+        synchronized long getVersion() {
+            return version;
+        }
+
+        synchronized LeaderElector.LeaderElectionRecord getRecord() {
+            return LeaderElector.LeaderElectionRecord.fromJson(configMap.getMetadata().getAnnotations().get(LeaderElector.LEADER_ANNOTATION));
+        }
+
+        private MockResponse store(String body, int code) {
+            configMap = Serialization.unmarshal(body, ConfigMap.class);
+            configMap.getMetadata().setResourceVersion(String.valueOf(++version));
+            return reply(code);
+        }
+
+        private MockResponse reply(int code) {
+            return new MockResponse()
+                    .setResponseCode(code)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(Serialization.asJson(configMap));
+        }
+    }
+}
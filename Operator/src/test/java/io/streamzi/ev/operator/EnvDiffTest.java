@@ -0,0 +1,179 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarSourceBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EnvDiffTest {
+
+    @Test
+    public void keysAreSanitisedAndNormalised() {
+        final EnvDiff diff = EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092"));
+
+        assertEquals(1, diff.size());
+        assertTrue(diff.contains("KAFKA_BOOTSTRAP"));
+        assertEquals("KAFKA_BOOTSTRAP", EnvDiff.normalise("kafka_Bootstrap"));
+        assertNull(EnvDiff.normalise(null));
+    }
+
+    @Test
+    public void applyAddsAndUpdates() {
+        final Container container = container(new EnvVar("KAFKA_BOOTSTRAP", "old:9092", null), new EnvVar("OTHER", "1", null));
+        final EnvDiff diff = EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092", "group.id", "consumer"));
+
+        assertTrue(diff.apply(Collections.singletonList(container)));
+        //Untouched variables keep their place, then the new values in the order of the sorted keys
+        assertEquals(Arrays.asList(new EnvVar("OTHER", "1", null), new EnvVar("GROUP_ID", "consumer", null),
+                new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null)), container.getEnv());
+    }
+
+    @Test
+    public void applyIsANoOpWhenUpToDate() {
+        final Container container = container(new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null));
+        final List<EnvVar> env = container.getEnv();
+
+        assertFalse(EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092")).apply(Collections.singletonList(container)));
+        assertTrue(env == container.getEnv());
+    }
+
+    @Test
+    public void applyReplacesANameInADifferentCase() {
+        final Container container = container(new EnvVar("kafka_bootstrap", "kafka:9092", null));
+
+        assertTrue(EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092")).apply(Collections.singletonList(container)));
+        assertEquals(Collections.singletonList(new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null)), container.getEnv());
+    }
+
+    @Test
+    public void applyRemovesDuplicatesOfAnUpToDateName() {
+        final Container container = container(
+                new EnvVar("OTHER", "x", null),
+                new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null),
+                new EnvVar("kafka_bootstrap", "old:9092", null),
+                new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null));
+
+        assertTrue(EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092")).apply(Collections.singletonList(container)));
+        assertEquals(Arrays.asList(
+                new EnvVar("OTHER", "x", null),
+                new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null)), container.getEnv());
+    }
+
+    @Test
+    public void applyReplacesValueFrom() {
+        final Container container = container(new EnvVar("KAFKA_BOOTSTRAP", null,
+                new EnvVarSourceBuilder().withNewFieldRef().withFieldPath("status.podIP").endFieldRef().build()));
+
+        assertTrue(EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092")).apply(Collections.singletonList(container)));
+        assertEquals(Collections.singletonList(new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null)), container.getEnv());
+    }
+
+    @Test
+    public void applyToEveryContainer() {
+        final Container first = container();
+        final Container second = container(new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null));
+
+        assertTrue(EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092")).apply(Arrays.asList(first, second)));
+        assertEquals(second.getEnv(), first.getEnv());
+    }
+
+    @Test
+    public void removeOnlyRemovesUnchangedValues() {
+        final Container container = container(new EnvVar("KAFKA_BOOTSTRAP", "kafka:9092", null),
+                new EnvVar("GROUP_ID", "changed", null), new EnvVar("OTHER", "1", null));
+        final EnvDiff diff = EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092", "group.id", "consumer"));
+
+        assertTrue(diff.remove(Collections.singletonList(container)));
+        assertEquals(Arrays.asList(new EnvVar("GROUP_ID", "changed", null), new EnvVar("OTHER", "1", null)), container.getEnv());
+        assertFalse(diff.remove(Collections.singletonList(container)));
+    }
+
+    @Test
+    public void removeFromContainerWithoutEnv() {
+        assertFalse(EnvDiff.of(configMap("a", "kafka.bootstrap", "kafka:9092")).remove(Collections.singletonList(container())));
+    }
+
+    @Test
+    public void configMapWithoutDataIsEmpty() {
+        final ConfigMap configMap = new ConfigMapBuilder().withNewMetadata().withName("a").endMetadata().build();
+        assertEquals(0, EnvDiff.of(configMap).size());
+        assertFalse(EnvDiff.of(configMap).apply(Collections.singletonList(container())));
+    }
+
+    @Test
+    public void highestPriorityWins() {
+        final ConfigMap low = ranked("low", "5", "2018-01-01T00:00:00Z", "kafka:9092");
+        final ConfigMap high = ranked("high", "10", "2018-06-01T00:00:00Z", "high:9092");
+
+        assertEquals("high:9092", value(EnvDiff.of(Arrays.asList(low, high))));
+        assertEquals("high:9092", value(EnvDiff.of(Arrays.asList(high, low))));
+    }
+
+    @Test
+    public void oldestWinsAtTheSamePriority() {
+        final ConfigMap older = ranked("b", null, "2018-01-01T00:00:00Z", "older:9092");
+        final ConfigMap newer = ranked("a", null, "2018-06-01T00:00:00Z", "newer:9092");
+
+        assertEquals("older:9092", value(EnvDiff.of(Arrays.asList(newer, older))));
+        assertEquals("older:9092", value(EnvDiff.of(Arrays.asList(older, newer))));
+    }
+
+    @Test
+    public void nameBreaksTies() {
+        final ConfigMap a = ranked("a", "1", "2018-01-01T00:00:00Z", "a:9092");
+        final ConfigMap b = ranked("b", "1", "2018-01-01T00:00:00Z", "b:9092");
+
+        assertEquals("a:9092", value(EnvDiff.of(Arrays.asList(b, a))));
+    }
+
+    @Test
+    public void invalidPriorityCountsAsZero() {
+        final ConfigMap invalid = ranked("invalid", "high", "2018-01-01T00:00:00Z", "invalid:9092");
+        final ConfigMap negative = ranked("negative", "-1", "2017-01-01T00:00:00Z", "negative:9092");
+
+        assertEquals(0, EnvDiff.getPriority(invalid));
+        assertEquals("invalid:9092", value(EnvDiff.of(Arrays.asList(negative, invalid))));
+    }
+
+    private static String value(EnvDiff diff) {
+        assertEquals(1, diff.size());
+        return diff.getEnvVars().iterator().next().getValue();
+    }
+
+    private static ConfigMap ranked(String name, String priority, String created, String value) {
+        final ConfigMap configMap = configMap(name, "kafka.bootstrap", value);
+        configMap.getMetadata().setCreationTimestamp(created);
+        if (priority != null) {
+            configMap.getMetadata().setLabels(Collections.singletonMap(Util.PRIORITY_LABEL, priority));
+        }
+        return configMap;
+    }
+
+    private static Container container(EnvVar... env) {
+        final ContainerBuilder builder = new ContainerBuilder().withName("app");
+        if (env.length > 0) {
+            builder.withEnv(Arrays.asList(env));
+        }
+        return builder.build();
+    }
+
+    private static ConfigMap configMap(String name, String... data) {
+        final ConfigMapBuilder builder = new ConfigMapBuilder().withNewMetadata().withNamespace("myproject").withName(name).endMetadata();
+        for (int i = 0; i < data.length; i += 2) {
+            builder.addToData(data[i], data[i + 1]);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,148 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarSourceBuilder;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EnvOwnershipTest {
+
+    private Deployment deployment;
+
+    @Before
+    public void setUp() {
+        deployment = new DeploymentBuilder()
+                .withNewMetadata().withNamespace("myproject").withName("consumer").endMetadata()
+                .withNewSpec().withNewTemplate().withNewSpec()
+                .addNewContainer().withName("app").endContainer()
+                .endSpec().endTemplate().endSpec()
+                .build();
+    }
+
+    @Test
+    public void sharedKeyDroppedByBothConfigMapsIsRemoved() {
+        reconcile(configMap("a", 10, "kafka.bootstrap", "a:9092"), configMap("b", 0, "kafka.bootstrap", "b:9092"));
+        assertEquals("a:9092", value("KAFKA_BOOTSTRAP"));
+
+        reconcile(configMap("a", 10, "other", "1"), configMap("b", 0, "other", "1"));
+        assertNull(value("KAFKA_BOOTSTRAP"));
+        assertEquals("1", value("OTHER"));
+    }
+
+    @Test
+    public void sharedKeyDroppedByWinnerKeepsLosersValue() {
+        reconcile(configMap("a", 10, "kafka.bootstrap", "a:9092"), configMap("b", 0, "kafka.bootstrap", "b:9092"));
+
+        reconcile(configMap("a", 10, "other", "1"), configMap("b", 0, "kafka.bootstrap", "b:9092"));
+        assertEquals("b:9092", value("KAFKA_BOOTSTRAP"));
+    }
+
+    @Test
+    public void sharedKeyOfDeletedWinnerKeepsLosersValue() {
+        reconcile(configMap("a", 10, "kafka.bootstrap", "a:9092"), configMap("b", 0, "kafka.bootstrap", "b:9092"));
+
+        reconcile(configMap("b", 0, "kafka.bootstrap", "b:9092"));
+        assertEquals("b:9092", value("KAFKA_BOOTSTRAP"));
+        assertEquals(Collections.singleton("b"), EnvOwnership.of(deployment).getConfigMaps());
+    }
+
+    @Test
+    public void sharedKeyOfBothDeletedIsRemoved() {
+        reconcile(configMap("a", 10, "kafka.bootstrap", "a:9092"), configMap("b", 0, "kafka.bootstrap", "b:9092"));
+
+        reconcile();
+        assertNull(value("KAFKA_BOOTSTRAP"));
+        assertNull(deployment.getMetadata().getAnnotations().get(EnvOwnership.OWNERS_ANNOTATION));
+    }
+
+    @Test
+    public void handEditedValueIsKept() {
+        reconcile(configMap("a", 10, "kafka.bootstrap", "a:9092"), configMap("b", 0, "kafka.bootstrap", "b:9092"));
+        env().get(0).setValue("mine:9092");
+
+        reconcile(configMap("a", 10, "other", "1"), configMap("b", 0, "other", "1"));
+        assertEquals("mine:9092", value("KAFKA_BOOTSTRAP"));
+    }
+
+    @Test
+    public void valueFromIsKept() {
+        reconcile(configMap("a", 0, "kafka.bootstrap", "a:9092"));
+        env().get(0).setValue(null);
+        env().get(0).setValueFrom(new EnvVarSourceBuilder().withNewFieldRef().withFieldPath("status.podIP").endFieldRef().build());
+
+        reconcile();
+        assertEquals(1, env().size());
+    }
+
+    @Test
+    public void containerNoLongerTargetedLosesTheKeys() {
+        reconcile(configMap("a", 0, "kafka.bootstrap", "a:9092"));
+
+        final EnvOwnership ownership = EnvOwnership.of(deployment);
+        ownership.record("a", EnvDiff.of(configMap("a", 0, "kafka.bootstrap", "a:9092")));
+        assertEquals(true, ownership.removeStale(container(), Collections.emptyList()));
+        assertNull(value("KAFKA_BOOTSTRAP"));
+    }
+
+    /*
+     * Do what WorkloadOperator does with the ConfigMaps for a workload with a single container
+     */
+    private void reconcile(ConfigMap... cms) {
+        final EnvOwnership ownership = EnvOwnership.of(deployment);
+        final Set<String> deleted = ownership.getConfigMaps();
+        final List<String> names = new ArrayList<>();
+        for (ConfigMap cm : cms) {
+            ownership.record(cm.getMetadata().getName(), EnvDiff.of(cm));
+            deleted.remove(cm.getMetadata().getName());
+            names.add(cm.getMetadata().getName());
+        }
+        for (String name : deleted) {
+            ownership.forget(name);
+        }
+        ownership.removeStale(container(), names);
+        EnvDiff.of(Arrays.asList(cms)).apply(Collections.singletonList(container()));
+        ownership.writeTo(deployment);
+    }
+
+    private Container container() {
+        return deployment.getSpec().getTemplate().getSpec().getContainers().get(0);
+    }
+
+    private List<EnvVar> env() {
+        return container().getEnv() != null ? container().getEnv() : Collections.emptyList();
+    }
+
+    private String value(String name) {
+        for (EnvVar envVar : env()) {
+            if (envVar.getName().equals(name)) {
+                return envVar.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static ConfigMap configMap(String name, int priority, String key, String value) {
+        return new ConfigMapBuilder()
+                .withNewMetadata()
+                .withNamespace("myproject")
+                .withName(name)
+                .addToLabels(Util.PRIORITY_LABEL, Integer.toString(priority))
+                .endMetadata()
+                .addToData(key, value)
+                .build();
+    }
+}
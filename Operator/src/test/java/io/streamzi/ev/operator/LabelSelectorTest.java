@@ -0,0 +1,45 @@
+package io.streamzi.ev.operator;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LabelSelectorTest {
+
+    @Test
+    public void matchesEqualityAndSetTerms() {
+        final LabelSelector selector = LabelSelector.parse("app=consumer,tier!=frontend,env in (prod, staging),!canary");
+        final Map<String, String> labels = new HashMap<>();
+        labels.put("app", "consumer");
+        labels.put("env", "prod");
+        assertTrue(selector.matches(labels));
+
+        labels.put("canary", "true");
+        assertFalse(selector.matches(labels));
+        assertFalse(selector.matches(null));
+        assertTrue(LabelSelector.parse("!canary").matches(Collections.emptyMap()));
+    }
+
+    @Test
+    public void compiledSelectorsAreSharedAndBounded() {
+        final LabelSelector first = LabelSelector.parse("app=first");
+        assertSame(first, LabelSelector.parse("app=first"));
+
+        for (int i = 0; i < LabelSelector.MAX_COMPILED; i++) {
+            LabelSelector.parse("app=" + i);
+        }
+        assertNotSame(first, LabelSelector.parse("app=first"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSelectorIsRejected() {
+        LabelSelector.parse("app in (a");
+    }
+}
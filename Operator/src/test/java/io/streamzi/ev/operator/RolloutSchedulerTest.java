@@ -0,0 +1,229 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.client.Watcher;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.queue.WorkQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RolloutSchedulerTest {
+
+    private ResourceCache<Deployment> deployments;
+
+    private WorkQueue queue;
+
+    private RolloutScheduler rollouts;
+
+    @Before
+    public void setUp() {
+        deployments = new ResourceCache<>();
+        //More shards than targets, so only the scheduler limits how many run at once
+        queue = new WorkQueue(8);
+        queue.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (rollouts != null) {
+            rollouts.stop();
+        }
+        queue.stop(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void atMostMaxConcurrentTargetsAtOnce() throws InterruptedException {
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 2, false, 600, TimeUnit.SECONDS);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            rollouts.add("myproject/app-" + i, "Target/myproject/app-" + i, System.nanoTime(), () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(100);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void waitingChangesForATargetAreCoalesced() throws InterruptedException {
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, false, 600, TimeUnit.SECONDS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(), () -> await(release));
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), () -> ran.add("first"));
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), () -> {
+            ran.add("second");
+            done.countDown();
+        });
+        assertEquals(1, rollouts.getWaiting());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("second"), ran);
+    }
+
+    @Test
+    public void writtenTargetKeepsItsSlotUntilRolledOut() throws InterruptedException {
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, true, 600, TimeUnit.SECONDS);
+        deployments.apply(Watcher.Action.ADDED, deployment("app-0", 1, 1));
+        final CountDownLatch next = new CountDownLatch(1);
+
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(),
+                () -> rollouts.written(Workload.DEPLOYMENT, deployment("app-0", 2, 1)));
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), next::countDown);
+
+        //Polled every second, so this is long enough to have seen app-0 still rolling out
+        assertFalse(next.await(1500, TimeUnit.MILLISECONDS));
+
+        deployments.apply(Watcher.Action.MODIFIED, deployment("app-0", 2, 2));
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void targetWithoutAWriteGivesUpItsSlotStraightAway() throws InterruptedException {
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, true, 600, TimeUnit.SECONDS);
+        final CountDownLatch next = new CountDownLatch(1);
+
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(), () -> { });
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), next::countDown);
+
+        //Well before the first poll
+        assertTrue(next.await(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void slotIsReleasedAfterTheTimeout() throws InterruptedException {
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, true, 1, TimeUnit.SECONDS);
+        deployments.apply(Watcher.Action.ADDED, deployment("app-0", 1, 1));
+        final CountDownLatch next = new CountDownLatch(1);
+
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(),
+                () -> rollouts.written(Workload.DEPLOYMENT, deployment("app-0", 2, 1)));
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), next::countDown);
+
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+        assertTrue(rollouts.toString(), rollouts.toString().contains("timedOut=1"));
+    }
+
+    @Test
+    public void slotIsReleasedWhenTheQueueDiscardsTheTask() throws InterruptedException {
+        //One shard, held up so that the target's task stays queued
+        queue.stop(5, TimeUnit.SECONDS);
+        queue = new WorkQueue(1);
+        queue.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.add("Blocker/myproject/blocker", () -> await(release));
+
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, false, 600, TimeUnit.SECONDS);
+        final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(2);
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(), () -> ran.add("slotted"));
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), () -> {
+            ran.add("next");
+            done.countDown();
+        });
+        assertEquals(1, rollouts.getWaiting());
+
+        //A resync of the same target replaces the task holding the slot
+        queue.add("myproject/app-0", "Target/myproject/app-0", () -> {
+            ran.add("resync");
+            done.countDown();
+        });
+        assertEquals(0, rollouts.getWaiting());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("resync", "next"), ran);
+        //The slot is given up just after the task returns
+        for (int i = 0; i < 500 && rollouts.getActive() > 0; i++) {
+            sleep(10);
+        }
+        assertEquals(0, rollouts.getActive());
+    }
+
+    @Test
+    public void slotIsReleasedWhenTheQueueBecomesInactive() throws InterruptedException {
+        queue.stop(5, TimeUnit.SECONDS);
+        queue = new WorkQueue(1);
+        queue.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        queue.add("Blocker/myproject/blocker", () -> await(release));
+
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, false, 600, TimeUnit.SECONDS);
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(), () -> { });
+        assertEquals(1, rollouts.getActive());
+
+        queue.setActive(false);
+        assertEquals(0, rollouts.getActive());
+        release.countDown();
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        rollouts = new RolloutScheduler(new ResourceCache<>(), deployments, queue, 1, false, 600, TimeUnit.SECONDS);
+        final CountDownLatch release = new CountDownLatch(1);
+        rollouts.add("myproject/app-0", "Target/myproject/app-0", System.nanoTime(), () -> await(release));
+        rollouts.add("myproject/app-1", "Target/myproject/app-1", System.nanoTime(), () -> { });
+
+        rollouts.clear();
+        assertEquals(0, rollouts.getActive());
+        assertEquals(0, rollouts.getWaiting());
+        release.countDown();
+    }
+
+    /*
+     * A Deployment with one replica at a generation, whose controller has caught up with the observed generation
+     */
+    private static Deployment deployment(String name, long generation, long observedGeneration) {
+        final boolean rolledOut = observedGeneration >= generation;
+        return new DeploymentBuilder()
+                .withNewMetadata().withNamespace("myproject").withName(name).withGeneration(generation).endMetadata()
+                .withNewSpec().withReplicas(1).endSpec()
+                .withNewStatus()
+                .withObservedGeneration(observedGeneration)
+                .withReplicas(rolledOut ? 1 : 2)
+                .withUpdatedReplicas(rolledOut ? 1 : 0)
+                .withAvailableReplicas(1)
+                .endStatus()
+                .build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
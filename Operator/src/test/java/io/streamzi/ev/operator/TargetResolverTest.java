@@ -0,0 +1,73 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.streamzi.ev.cache.ResourceCache;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TargetResolverTest {
+
+    @Test
+    public void selectorTargetsMatchingWorkloads() {
+        final ResourceCache<ConfigMap> configMaps = new ResourceCache<>();
+        configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+        configMaps.addIndex(TargetResolver.SELECTOR_INDEX, TargetResolver::getSelectorKey);
+        final ResourceCache<Deployment> deployments = new ResourceCache<>();
+        deployments.addMultiIndex(TargetResolver.LABELS_INDEX, TargetResolver::getLabelKeys);
+        final TargetResolver resolver = new TargetResolver(configMaps, new ResourceCache<DeploymentConfig>(), deployments);
+
+        deployments.apply(Watcher.Action.ADDED, deployment("consumer", "backend"));
+        deployments.apply(Watcher.Action.ADDED, deployment("web", "frontend"));
+        final ConfigMap configMap = configMap("shared", "1", "app,tier!=frontend");
+        configMaps.apply(Watcher.Action.ADDED, configMap);
+
+        assertEquals(Collections.singleton("consumer"), resolver.getTargets(configMap));
+        assertEquals(Collections.singletonList(configMap), resolver.getConfigMaps(deployments.get("myproject", "consumer")));
+        assertTrue(resolver.getConfigMaps(deployments.get("myproject", "web")).isEmpty());
+    }
+
+    @Test
+    public void invalidSelectorIsReportedOncePerVersion() {
+        final ConfigMap configMap = configMap("invalid", "1", "app in (a");
+
+        assertNull(TargetResolver.getSelector(configMap));
+        assertFalse(TargetResolver.report(configMap));
+        assertTrue(TargetResolver.report(configMap("invalid", "2", "app in (b")));
+        assertFalse(TargetResolver.report(configMap("invalid", "2", "app in (b")));
+        assertTrue(TargetResolver.report(configMap("other", "2", "app in (b")));
+    }
+
+    private static ConfigMap configMap(String name, String resourceVersion, String selector) {
+        return new ConfigMapBuilder()
+                .withNewMetadata()
+                .withNamespace("myproject")
+                .withName(name)
+                .withResourceVersion(resourceVersion)
+                .addToLabels(Util.KIND_LABEL, Util.KIND_VALUE)
+                .addToAnnotations(TargetResolver.SELECTOR_ANNOTATION, selector)
+                .endMetadata()
+                .build();
+    }
+
+    private static Deployment deployment(String name, String tier) {
+        return new DeploymentBuilder()
+                .withNewMetadata()
+                .withNamespace("myproject")
+                .withName(name)
+                .addToLabels("app", name)
+                .addToLabels("tier", tier)
+                .endMetadata()
+                .build();
+    }
+}
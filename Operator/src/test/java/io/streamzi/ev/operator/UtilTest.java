@@ -0,0 +1,58 @@
+package io.streamzi.ev.operator;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.client.Watcher;
+import io.streamzi.ev.cache.ResourceCache;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UtilTest {
+
+    @Test
+    public void targetKeyNeedsTheKindLabel() {
+        assertEquals("myproject/consumer", Util.getTargetKey(configMap("a", "consumer", true)));
+        assertNull(Util.getTargetKey(configMap("a", "consumer", false)));
+        assertNull(Util.getTargetKey(configMap("a", null, true)));
+    }
+
+    @Test
+    public void targetIndexFollowsTheLabels() {
+        final ResourceCache<ConfigMap> configMaps = new ResourceCache<>();
+        configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+
+        final ConfigMap consumer = configMap("a", "consumer", true);
+        configMaps.apply(Watcher.Action.ADDED, consumer);
+        configMaps.apply(Watcher.Action.ADDED, configMap("b", "consumer", false));
+        assertEquals(Collections.singletonList(consumer), configMaps.byIndex(Util.TARGET_INDEX, "myproject/consumer"));
+
+        final ConfigMap producer = configMap("a", "producer", true);
+        configMaps.apply(Watcher.Action.MODIFIED, producer);
+        assertTrue(configMaps.byIndex(Util.TARGET_INDEX, "myproject/consumer").isEmpty());
+        assertEquals(Collections.singletonList(producer), configMaps.byIndex(Util.TARGET_INDEX, "myproject/producer"));
+
+        configMaps.apply(Watcher.Action.DELETED, producer);
+        assertTrue(configMaps.byIndex(Util.TARGET_INDEX, "myproject/producer").isEmpty());
+    }
+
+    @Test
+    public void envVarIsSanitised() {
+        assertEquals("KAFKA_BOOTSTRAP_SERVERS", Util.sanitiseEnvVar("kafka.bootstrap.servers"));
+    }
+
+    private static ConfigMap configMap(String name, String target, boolean kindLabel) {
+        final ConfigMapBuilder builder = new ConfigMapBuilder().withNewMetadata().withNamespace("myproject").withName(name).endMetadata();
+        if (target != null) {
+            builder.editMetadata().addToLabels(Util.TARGET_LABEL, target).endMetadata();
+        }
+        if (kindLabel) {
+            builder.editMetadata().addToLabels(Util.KIND_LABEL, Util.KIND_VALUE).endMetadata();
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,156 @@
+package io.streamzi.ev.operator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfigBuilder;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WorkloadWriterTest {
+
+    private static final String PATH = "/apis/extensions/v1beta1/namespaces/myproject/deployments/app";
+
+    private MockWebServer server;
+
+    private OpenShiftClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new DefaultOpenShiftClient(new OpenShiftConfigBuilder()
+                .withMasterUrl(server.url("/").toString())
+                .withDisableApiGroupCheck(true)
+                .build());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void patchOnlyReplacesWhatChanged() throws Exception {
+        server.enqueue(reply(deployment("2", "build", "1")));
+
+        final WorkloadWriter writer = new WorkloadWriter(client, new WriteTracker(), WorkloadWriter.Mode.PATCH, 3);
+        assertTrue(writer.update(Workload.DEPLOYMENT, deployment("1", null, null), setEnv("KAFKA", "kafka:9092")));
+
+        final RecordedRequest request = server.takeRequest();
+        assertEquals("PATCH", request.getMethod());
+        assertEquals(PATH, request.getPath());
+        assertTrue(request.getHeader("Content-Type").startsWith("application/json-patch+json"));
+        assertEquals(Serialization.jsonMapper().readTree("["
+                        + "{\"op\":\"replace\",\"path\":\"/metadata/resourceVersion\",\"value\":\"1\"},"
+                        + "{\"op\":\"test\",\"path\":\"/spec/template/spec/containers/1/name\",\"value\":\"app\"},"
+                        + "{\"op\":\"add\",\"path\":\"/spec/template/spec/containers/1/env\",\"value\":[{\"name\":\"KAFKA\",\"value\":\"kafka:9092\"}]},"
+                        + "{\"op\":\"add\",\"path\":\"/metadata/annotations/streamzi.io~1build\",\"value\":\"1\"}"
+                        + "]"),
+                Serialization.jsonMapper().readTree(request.getBody().readUtf8()));
+    }
+
+    @Test
+    public void conflictIsRetriedOnTheLatestVersion() throws Exception {
+        //Someone else added a variable in the meantime
+        final Deployment latest = deployment("5", null, null);
+        latest.getSpec().getTemplate().getSpec().getContainers().get(1).getEnv().add(new EnvVar("OTHER", "x", null));
+
+        server.enqueue(new MockResponse().setResponseCode(409));
+        server.enqueue(reply(latest));
+        server.enqueue(reply(deployment("6", "build", "1")));
+
+        final WorkloadWriter writer = new WorkloadWriter(client, new WriteTracker(), WorkloadWriter.Mode.PATCH, 3);
+        assertTrue(writer.update(Workload.DEPLOYMENT, deployment("1", null, null), setEnv("KAFKA", "kafka:9092")));
+
+        assertEquals("PATCH", server.takeRequest().getMethod());
+        final RecordedRequest refetch = server.takeRequest();
+        assertEquals("GET", refetch.getMethod());
+        assertEquals(PATH, refetch.getPath());
+
+        final JsonNode ops = Serialization.jsonMapper().readTree(server.takeRequest().getBody().readUtf8());
+        assertEquals("5", ops.get(0).get("value").asText());
+        assertEquals(Serialization.jsonMapper().readTree("[{\"name\":\"OTHER\",\"value\":\"x\"},{\"name\":\"KAFKA\",\"value\":\"kafka:9092\"}]"),
+                ops.get(2).get("value"));
+    }
+
+    @Test
+    public void conflictIsThrownAfterTheLastAttempt() {
+        server.enqueue(new MockResponse().setResponseCode(409));
+
+        final WorkloadWriter writer = new WorkloadWriter(client, new WriteTracker(), WorkloadWriter.Mode.PATCH, 1);
+        try {
+            writer.update(Workload.DEPLOYMENT, deployment("1", null, null), setEnv("KAFKA", "kafka:9092"));
+            fail("Expected a conflict");
+        } catch (KubernetesClientException e) {
+            assertEquals(409, e.getCode());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void nothingIsWrittenWithoutAChange() {
+        final WorkloadWriter writer = new WorkloadWriter(client, new WriteTracker(), WorkloadWriter.Mode.PATCH, 3);
+
+        assertFalse(writer.update(Workload.DEPLOYMENT, deployment("1", null, null), d -> false));
+        assertEquals(0, server.getRequestCount());
+    }
+
+    /*
+     * Add the variable to the app container and record the change in an annotation
+     */
+    private static Predicate<Deployment> setEnv(String name, String value) {
+        return deployment -> {
+            deployment.getSpec().getTemplate().getSpec().getContainers().get(1).getEnv().add(new EnvVar(name, value, null));
+            deployment.getMetadata().getAnnotations().put("streamzi.io/build", "1");
+            return true;
+        };
+    }
+
+    /*
+     * A Deployment with a sidecar and an app container, and an annotation so that others can be added to it
+     */
+    private static Deployment deployment(String resourceVersion, String annotation, String annotationValue) {
+        final DeploymentBuilder builder = new DeploymentBuilder()
+                .withNewMetadata()
+                .withNamespace("myproject")
+                .withName("app")
+                .withResourceVersion(resourceVersion)
+                .addToAnnotations("owner", "team")
+                .endMetadata()
+                .withNewSpec().withNewTemplate().withNewSpec()
+                .addNewContainer().withName("sidecar").withEnv(new EnvVar("PROXY", "on", null)).endContainer()
+                .addNewContainer().withName("app").withEnv(new ArrayList<EnvVar>()).endContainer()
+                .endSpec().endTemplate().endSpec();
+        if (annotation != null) {
+            builder.editMetadata().addToAnnotations("streamzi.io/" + annotation, annotationValue).endMetadata();
+        }
+        return builder.build();
+    }
+
+    private static MockResponse reply(Deployment deployment) {
+        return new MockResponse()
+                .setResponseCode(200)
+                .setHeader("Content-Type", "application/json")
+                .setBody(Serialization.asJson(deployment));
+    }
+}
@@ -0,0 +1,75 @@
+package io.streamzi.ev.queue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DebouncerTest {
+
+    private Debouncer debouncer;
+
+    @After
+    public void tearDown() {
+        if (debouncer != null) {
+            debouncer.stop();
+        }
+    }
+
+    @Test
+    public void burstIsReleasedOnceWithTheLatestTask() throws InterruptedException {
+        debouncer = new Debouncer(100, 5000, TimeUnit.MILLISECONDS);
+        final List<String> released = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+        debouncer.add("myproject/consumer", () -> released.add("first"));
+        debouncer.add("myproject/consumer", () -> released.add("second"));
+        debouncer.add("myproject/consumer", () -> {
+            released.add("third");
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        //Give a wrongly scheduled earlier task the chance to run
+        Thread.sleep(200);
+        assertEquals(Collections.singletonList("third"), released);
+        assertEquals(2, debouncer.getMerged());
+        assertEquals(0, debouncer.getPending());
+    }
+
+    @Test
+    public void keysAreHeldBackSeparately() throws InterruptedException {
+        debouncer = new Debouncer(100, 5000, TimeUnit.MILLISECONDS);
+        final CountDownLatch done = new CountDownLatch(2);
+        debouncer.add("myproject/consumer", done::countDown);
+        debouncer.add("myproject/producer", done::countDown);
+
+        assertEquals(2, debouncer.getPending());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, debouncer.getReleased());
+    }
+
+    @Test
+    public void keyThatKeepsChangingIsReleasedAfterTheMaxWait() throws InterruptedException {
+        debouncer = new Debouncer(200, 500, TimeUnit.MILLISECONDS);
+        final AtomicLong firstRelease = new AtomicLong();
+        final long start = System.nanoTime();
+
+        //A change every 50ms would hold the key back for ever with only the window
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500)) {
+            debouncer.add("myproject/consumer", () -> firstRelease.compareAndSet(0, System.nanoTime()));
+            Thread.sleep(50);
+        }
+
+        assertTrue("Not released while changing", firstRelease.get() != 0);
+        final long waited = TimeUnit.NANOSECONDS.toMillis(firstRelease.get() - start);
+        assertTrue("Released after " + waited + "ms", waited >= 450 && waited < 1000);
+    }
+}
@@ -0,0 +1,170 @@
+package io.streamzi.ev.queue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkQueueTest {
+
+    private WorkQueue queue;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (queue != null) {
+            queue.stop(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void waitingTasksForTheSameKeyAreCoalesced() throws InterruptedException {
+        queue = new WorkQueue(1);
+        final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        queue.add("Deployment/myproject/consumer", () -> ran.add("first"));
+        queue.add("Deployment/myproject/consumer", () -> ran.add("second"));
+        queue.add("Deployment/myproject/consumer", () -> ran.add("third"));
+
+        assertEquals(1, queue.getDepth());
+        assertEquals(2, queue.getCoalesced());
+        assertEquals(3.0, queue.getCoalescingRatio(), 0.001);
+
+        queue.start();
+        awaitProcessed(1);
+        assertEquals(Collections.singletonList("third"), ran);
+    }
+
+    @Test
+    public void tasksForAShardKeyRunInOrderOneAtATime() throws InterruptedException {
+        queue = new WorkQueue(4);
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            final int task = i;
+            queue.add("myproject/consumer", "ConfigMap/myproject/cm-" + i, () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                ran.add(task);
+                running.decrementAndGet();
+            });
+        }
+        //A coalesced task keeps the place of the one it replaced
+        queue.add("myproject/consumer", "ConfigMap/myproject/cm-0", () -> ran.add(0));
+
+        queue.start();
+        awaitProcessed(100);
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), ran.get(i));
+        }
+    }
+
+    @Test
+    public void taskAddedWhileItsKeyIsRunningRunsAgain() throws InterruptedException {
+        queue = new WorkQueue(1);
+        queue.start();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        queue.add("Deployment/myproject/consumer", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        queue.add("Deployment/myproject/consumer", runs::incrementAndGet);
+        release.countDown();
+        awaitProcessed(2);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void tasksAreDroppedWhileInactiveOrNotOwned() {
+        queue = new WorkQueue(1);
+        queue.setActive(false);
+        assertFalse(queue.add("myproject/consumer", "Deployment/myproject/consumer", System.nanoTime(), () -> { }));
+        assertEquals(1, queue.getDropped());
+
+        queue.setActive(true);
+        queue.setOwnership(shardKey -> shardKey.startsWith("mine/"));
+        assertFalse(queue.add("myproject/consumer", "Deployment/myproject/consumer", System.nanoTime(), () -> { }));
+        assertTrue(queue.add("mine/consumer", "Deployment/mine/consumer", System.nanoTime(), () -> { }));
+        assertEquals(1, queue.getNotOwned());
+        assertEquals(1, queue.getDepth());
+    }
+
+    @Test
+    public void discardableTaskIsToldWhenItWillNotRun() throws InterruptedException {
+        queue = new WorkQueue(1);
+        final List<String> discarded = Collections.synchronizedList(new ArrayList<>());
+        queue.add("Deployment/myproject/consumer", discardable("replaced", discarded));
+        queue.add("Deployment/myproject/consumer", discardable("cleared", discarded));
+        assertEquals(Collections.singletonList("replaced"), discarded);
+
+        queue.setActive(false);
+        assertEquals(Arrays.asList("replaced", "cleared"), discarded);
+
+        //Nor is a task that runs
+        queue.setActive(true);
+        queue.add("Deployment/myproject/consumer", discardable("ran", discarded));
+        queue.start();
+        awaitProcessed(1);
+        assertEquals(Arrays.asList("replaced", "cleared"), discarded);
+    }
+
+    @Test
+    public void taskThatThrowsAnErrorDoesNotStopTheShardOrLeakItsPermit() throws InterruptedException {
+        //Two shards sharing one permit, so a leaked permit would stop both
+        queue = new WorkQueue(2, 1, false);
+        queue.start();
+
+        final CountDownLatch ran = new CountDownLatch(2);
+        queue.add("myproject/consumer", "Deployment/myproject/consumer", () -> {
+            throw new AssertionError("Expected by the test");
+        });
+        queue.add("myproject/consumer", "ConfigMap/myproject/consumer.cm", ran::countDown);
+        queue.add("myproject/producer", "Deployment/myproject/producer", ran::countDown);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        awaitProcessed(3);
+        assertEquals(0, queue.getInFlight());
+    }
+
+    private static WorkQueue.Discardable discardable(String name, List<String> discarded) {
+        return new WorkQueue.Discardable() {
+            @Override
+            public void run() {
+            }
+
+            @Override
+            public void discarded() {
+                discarded.add(name);
+            }
+        };
+    }
+
+    private void awaitProcessed(long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.getProcessed() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, queue.getProcessed());
+    }
+}
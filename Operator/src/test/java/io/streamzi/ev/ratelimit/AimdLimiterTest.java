@@ -0,0 +1,136 @@
+package io.streamzi.ev.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AimdLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long LATENCY_TARGET = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private long now = 1000 * SECOND;
+
+    @Test
+    public void throttlingHalvesTheRate() {
+        final AimdLimiter limiter = limiter(40);
+
+        limiter.onResponse(429, 0, true);
+        assertEquals(20, limiter.getRate(), 0);
+
+        now += SECOND;
+        limiter.onResponse(503, 0, true);
+        assertEquals(10, limiter.getRate(), 0);
+
+        now += SECOND;
+        limiter.onResponse(200, LATENCY_TARGET + 1, true);
+        assertEquals(5, limiter.getRate(), 0);
+
+        now += SECOND;
+        limiter.onError();
+        assertEquals(2.5, limiter.getRate(), 0);
+        assertEquals(4, limiter.getBackoffs());
+    }
+
+    @Test
+    public void rateIsHalvedAtMostOnceASecond() {
+        final AimdLimiter limiter = limiter(40);
+
+        limiter.onResponse(429, 0, true);
+        limiter.onResponse(429, 0, true);
+        now += SECOND / 2;
+        limiter.onResponse(429, 0, true);
+
+        assertEquals(20, limiter.getRate(), 0);
+        assertEquals(1, limiter.getBackoffs());
+    }
+
+    @Test
+    public void rateNeverDropsBelowTheMinimum() {
+        final AimdLimiter limiter = limiter(2);
+
+        for (int i = 0; i < 5; i++) {
+            now += SECOND;
+            limiter.onResponse(429, 0, true);
+        }
+
+        assertEquals(AimdLimiter.MIN_RATE, limiter.getRate(), 0);
+    }
+
+    @Test
+    public void rateGrowsByATenthOfTheMaximumEachSecond() {
+        final AimdLimiter limiter = limiter(40);
+        limiter.onResponse(429, 0, true);
+
+        //Not within a second of the decrease
+        limiter.onResponse(200, 0, true);
+        assertEquals(20, limiter.getRate(), 0);
+
+        now += SECOND;
+        limiter.onResponse(200, 0, true);
+        limiter.onResponse(200, 0, true);
+        assertEquals(24, limiter.getRate(), 0);
+
+        for (int i = 0; i < 10; i++) {
+            now += SECOND;
+            limiter.onResponse(200, 0, true);
+        }
+        assertEquals(40, limiter.getRate(), 0);
+    }
+
+    @Test
+    public void untimedResponsesIgnoreTheLatencyTarget() {
+        final AimdLimiter limiter = limiter(40);
+
+        limiter.onResponse(200, LATENCY_TARGET * 10, false);
+
+        assertEquals(40, limiter.getRate(), 0);
+    }
+
+    @Test
+    public void requestsAreSpacedEvenly() {
+        final AimdLimiter limiter = limiter(4);
+
+        assertEquals(0, limiter.reserve());
+        assertEquals(SECOND / 4, limiter.reserve());
+        assertEquals(SECOND / 2, limiter.reserve());
+
+        now += SECOND;
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    public void unlimitedRateBacksOffFromTheRateRequestsWereSentAt() {
+        final AimdLimiter limiter = limiter(0);
+        assertEquals(Double.POSITIVE_INFINITY, limiter.getRate(), 0);
+
+        //60 requests in the last second, none of them held back
+        for (int i = 0; i < 60; i++) {
+            assertEquals(0, limiter.reserve());
+            now += SECOND / 60;
+        }
+        now += SECOND / 60;
+        limiter.reserve();
+        limiter.onResponse(429, 0, true);
+        assertEquals(30, limiter.getRate(), 1);
+
+        //Grows back by a tenth of the rate it backed off from, then stops pacing
+        for (int i = 0; i < 4; i++) {
+            now += SECOND;
+            limiter.onResponse(200, 0, true);
+        }
+        assertEquals(54, limiter.getRate(), 1);
+        now += SECOND;
+        limiter.onResponse(200, 0, true);
+        assertEquals(Double.POSITIVE_INFINITY, limiter.getRate(), 0);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+    }
+
+    private AimdLimiter limiter(double maxRate) {
+        return new AimdLimiter("test", maxRate, LATENCY_TARGET, () -> now);
+    }
+}
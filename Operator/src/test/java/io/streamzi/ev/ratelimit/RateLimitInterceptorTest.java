@@ -0,0 +1,136 @@
+package io.streamzi.ev.ratelimit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitInterceptorTest {
+
+    private static final String PATH = "/api/v1/namespaces/myproject/configmaps/consumer.cm";
+
+    private MockWebServer server;
+
+    private AimdLimiter reads;
+
+    private AimdLimiter writes;
+
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        reads = new AimdLimiter("test-reads", 100, 0);
+        writes = new AimdLimiter("test-writes", 100, 0);
+        client = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitInterceptor(reads, writes))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void throttledRequestIsSentAgain() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        try (Response response = client.newCall(patch()).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(50, writes.getRate(), 0);
+        assertEquals(100, reads.getRate(), 0);
+    }
+
+    @Test
+    public void retryWaitsForRetryAfter() throws IOException {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        final long start = System.nanoTime();
+        try (Response response = client.newCall(get()).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        //Halved, then grown by a tenth of the maximum as the retry succeeded a second later
+        assertEquals(60, reads.getRate(), 0);
+    }
+
+    @Test
+    public void throttledRequestIsSentAtMostMaxAttemptsTimes() throws IOException {
+        for (int i = 0; i < RateLimitInterceptor.MAX_ATTEMPTS + 1; i++) {
+            server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+        }
+
+        try (Response response = client.newCall(patch()).execute()) {
+            assertEquals(429, response.code());
+        }
+
+        assertEquals(RateLimitInterceptor.MAX_ATTEMPTS, server.getRequestCount());
+    }
+
+    @Test
+    public void exemptThreadIsNeitherLimitedNorRetried() throws Exception {
+        //One request every half a second if it were limited
+        reads = new AimdLimiter("test-reads", 2, 0);
+        client = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitInterceptor(reads, writes))
+                .build();
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200));
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Long> elapsed = executor.submit(() -> {
+                RateLimitInterceptor.exemptCurrentThread();
+                final long start = System.nanoTime();
+                try (Response response = client.newCall(get()).execute()) {
+                    assertEquals(429, response.code());
+                }
+                for (int i = 0; i < 3; i++) {
+                    client.newCall(get()).execute().close();
+                }
+                return System.nanoTime() - start;
+            });
+            assertTrue(elapsed.get() < TimeUnit.MILLISECONDS.toNanos(500));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(4, server.getRequestCount());
+        assertEquals(2, reads.getRate(), 0);
+    }
+
+    private Request get() {
+        return new Request.Builder().url(server.url(PATH)).build();
+    }
+
+    private Request patch() {
+        return new Request.Builder().url(server.url(PATH))
+                .patch(RequestBody.create(MediaType.parse("application/json-patch+json"), "[]"))
+                .build();
+    }
+}
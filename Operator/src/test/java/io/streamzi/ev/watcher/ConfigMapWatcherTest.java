@@ -0,0 +1,81 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.operator.ConfigMapOperator;
+import io.streamzi.ev.operator.TargetResolver;
+import io.streamzi.ev.operator.Util;
+import io.streamzi.ev.queue.WorkQueue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConfigMapWatcherTest {
+
+    private ResourceCache<ConfigMap> configMaps;
+
+    private WorkQueue queue;
+
+    private ConfigMapWatcher watcher;
+
+    @Before
+    public void setUp() {
+        configMaps = new ResourceCache<>();
+        configMaps.addIndex(Util.TARGET_INDEX, Util::getTargetKey);
+        configMaps.addIndex(TargetResolver.SELECTOR_INDEX, TargetResolver::getSelectorKey);
+        final ResourceCache<DeploymentConfig> deploymentConfigs = new ResourceCache<>();
+        final ResourceCache<Deployment> deployments = new ResourceCache<>();
+        final TargetResolver resolver = new TargetResolver(configMaps, deploymentConfigs, deployments);
+
+        //Not started, so the tasks stay queued and can be counted
+        queue = new WorkQueue(1);
+        watcher = new ConfigMapWatcher(null, new ConfigMapOperator(deploymentConfigs, deployments, resolver, null, null, null),
+                "streamzi.io/kind=ev", configMaps, queue, new WatchScope(Collections.singletonList("myproject")));
+    }
+
+    @Test
+    public void configMapThatStopsMatchingIsRemovedFromItsTargets() {
+        watcher.eventReceived(Watcher.Action.ADDED, configMap("1", true));
+        assertEquals(1, queue.getAdded());
+
+        watcher.eventReceived(Watcher.Action.MODIFIED, configMap("2", false));
+        assertEquals(2, queue.getAdded());
+        assertEquals(0, configMaps.size());
+
+        //Now that it's evicted, further changes are ignored
+        watcher.eventReceived(Watcher.Action.MODIFIED, configMap("3", false));
+        assertEquals(2, queue.getAdded());
+    }
+
+    @Test
+    public void configMapThatNeverMatchedIsIgnored() {
+        watcher.eventReceived(Watcher.Action.ADDED, configMap("1", false));
+        watcher.eventReceived(Watcher.Action.MODIFIED, configMap("2", false));
+        assertEquals(0, configMaps.size());
+        watcher.eventReceived(Watcher.Action.DELETED, configMap("3", false));
+
+        assertEquals(0, queue.getAdded());
+    }
+
+    private static ConfigMap configMap(String resourceVersion, boolean kindLabel) {
+        final ConfigMapBuilder builder = new ConfigMapBuilder()
+                .withNewMetadata()
+                .withNamespace("myproject")
+                .withName("consumer.cm")
+                .withResourceVersion(resourceVersion)
+                .addToLabels(Util.TARGET_LABEL, "consumer")
+                .endMetadata()
+                .addToData("kafka.bootstrap", "kafka:9092");
+        if (kindLabel) {
+            builder.editMetadata().addToLabels(Util.KIND_LABEL, Util.KIND_VALUE).endMetadata();
+        }
+        return builder.build();
+    }
+}
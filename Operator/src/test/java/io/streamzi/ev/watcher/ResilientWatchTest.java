@@ -0,0 +1,132 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.ConfigMapList;
+import io.fabric8.kubernetes.api.model.ConfigMapListBuilder;
+import io.fabric8.kubernetes.api.model.StatusBuilder;
+import io.fabric8.kubernetes.api.model.WatchEvent;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.client.server.mock.OpenShiftMockServer;
+import io.streamzi.ev.cache.ResourceCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ResilientWatchTest {
+
+    private static final String PATH = "/api/v1/namespaces/myproject/configmaps";
+
+    private OpenShiftMockServer server;
+
+    private ResourceCache<ConfigMap> cache;
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private ResilientWatch<ConfigMap, ?> watch;
+
+    @Before
+    public void setUp() {
+        server = new OpenShiftMockServer(false);
+        server.start();
+        cache = new ResourceCache<>();
+        cache.replace(Arrays.asList(configMap("a", "1"), configMap("b", "1")));
+    }
+
+    @After
+    public void tearDown() {
+        if (watch != null) {
+            watch.close();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void expiredWatchRelistsAndPassesOnTheDifference() throws InterruptedException {
+        server.expect().withPath(PATH + "?resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket().open()
+                .waitFor(50).andEmit(new WatchEvent(new StatusBuilder().withCode(410).withMessage("too old resource version").build(), "ERROR"))
+                .done().once();
+        //a was deleted, b changed and c added while the watch was down
+        server.expect().withPath(PATH).andReturn(200, list("10", configMap("b", "7"), configMap("c", "8"))).once();
+        server.expect().withPath(PATH + "?resourceVersion=10&watch=true")
+                .andUpgradeToWebSocket().open()
+                .waitFor(50).andEmit(new WatchEvent(configMap("d", "11"), "ADDED"))
+                .done().always();
+
+        start("1");
+
+        assertEquals(Arrays.asList("MODIFIED b", "ADDED c", "DELETED a"), next(3));
+        //Carries on from the version of the list
+        assertEquals(Collections.singletonList("ADDED d"), next(1));
+        assertEquals("11", watch.getLastResourceVersion());
+    }
+
+    @Test
+    public void malformedRelistIsRetried() throws InterruptedException {
+        server.expect().withPath(PATH + "?resourceVersion=1&watch=true")
+                .andUpgradeToWebSocket().open()
+                .waitFor(50).andEmit(new WatchEvent(new StatusBuilder().withCode(410).withMessage("too old resource version").build(), "ERROR"))
+                .done().once();
+        //b without a resourceVersion can't be compared with the cache
+        server.expect().withPath(PATH).andReturn(200, list("10", new ConfigMapBuilder().withNewMetadata()
+                .withNamespace("myproject").withName("b").endMetadata().build())).once();
+        server.expect().withPath(PATH).andReturn(200, list("12", configMap("a", "1"), configMap("b", "9"))).once();
+        server.expect().withPath(PATH + "?resourceVersion=12&watch=true")
+                .andUpgradeToWebSocket().open()
+                .waitFor(50).andEmit(new WatchEvent(configMap("d", "13"), "ADDED"))
+                .done().always();
+
+        start("1");
+
+        assertEquals(Arrays.asList("MODIFIED b", "ADDED d"), next(2));
+    }
+
+    private void start(String resourceVersion) {
+        watch = new ResilientWatch<>("ConfigMaps", server.createOpenShiftClient().configMaps().inNamespace("myproject"), "myproject", cache,
+                new Watcher<ConfigMap>() {
+                    @Override
+                    public void eventReceived(Action action, ConfigMap resource) {
+                        cache.apply(action, resource);
+                        events.add(action + " " + resource.getMetadata().getName());
+                    }
+
+                    @Override
+                    public void onClose(KubernetesClientException cause) {
+                    }
+                });
+        watch.start(resourceVersion);
+    }
+
+    private List<String> next(int count) throws InterruptedException {
+        final List<String> received = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final String event = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull("Only received " + received, event);
+            received.add(event);
+        }
+        return received;
+    }
+
+    private static ConfigMapList list(String resourceVersion, ConfigMap... items) {
+        return new ConfigMapListBuilder().withNewMetadata().withResourceVersion(resourceVersion).endMetadata()
+                .withItems(items).build();
+    }
+
+    private static ConfigMap configMap(String name, String resourceVersion) {
+        return new ConfigMapBuilder().withNewMetadata().withNamespace("myproject").withName(name)
+                .withResourceVersion(resourceVersion).endMetadata().build();
+    }
+}
@@ -0,0 +1,102 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.ConfigMapListBuilder;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.openshift.client.DefaultOpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.fabric8.openshift.client.OpenShiftConfigBuilder;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResourceFilterTest {
+
+    private MockWebServer server;
+
+    private OpenShiftClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new DefaultOpenShiftClient(new OpenShiftConfigBuilder()
+                .withMasterUrl(server.url("/").toString())
+                .withDisableApiGroupCheck(true)
+                .build());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void selectorsAreSentToTheApiServer() throws InterruptedException {
+        final HttpUrl url = list(new ResourceFilter("streamzi.io/kind=ev,tier!=frontend,env in (prod,staging),!canary", "metadata.name==consumer"));
+
+        assertEquals(new HashSet<>(Arrays.asList("streamzi.io/kind=ev", "tier!=frontend", "env in (prod,staging)", "!canary")),
+                terms(url.queryParameter("labelSelector")));
+        assertEquals("metadata.name=consumer", url.queryParameter("fieldSelector"));
+    }
+
+    @Test
+    public void noSelectorListsEverything() throws InterruptedException {
+        final HttpUrl url = list(ResourceFilter.NONE);
+
+        assertNull(url.queryParameter("labelSelector"));
+        assertNull(url.queryParameter("fieldSelector"));
+        assertEquals("no selector", ResourceFilter.NONE.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fieldInequalityIsRejected() {
+        new ResourceFilter(null, "metadata.name!=consumer");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLabelSelectorIsRejected() {
+        new ResourceFilter("env in (prod", null);
+    }
+
+    private HttpUrl list(ResourceFilter filter) throws InterruptedException {
+        server.enqueue(new MockResponse()
+                .setResponseCode(200)
+                .setHeader("Content-Type", "application/json")
+                .setBody(Serialization.asJson(new ConfigMapListBuilder().build())));
+        filter.apply(client.configMaps().inNamespace("myproject")).list();
+        return server.takeRequest().getRequestUrl();
+    }
+
+    /*
+     * Split a label selector into its terms, the order of which doesn't matter
+     */
+    private static HashSet<String> terms(String selector) {
+        final HashSet<String> terms = new HashSet<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < selector.length(); i++) {
+            final char c = selector.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                terms.add(selector.substring(start, i));
+                start = i + 1;
+            }
+        }
+        terms.add(selector.substring(start));
+        return terms;
+    }
+}
@@ -0,0 +1,97 @@
+package io.streamzi.ev.watcher;
+
+import io.fabric8.kubernetes.api.model.extensions.Deployment;
+import io.fabric8.kubernetes.api.model.extensions.DeploymentBuilder;
+import io.fabric8.kubernetes.client.Watcher;
+import io.streamzi.ev.cache.ResourceCache;
+import io.streamzi.ev.operator.EnvironmentVariableOperator;
+import io.streamzi.ev.operator.WriteTracker;
+import io.streamzi.ev.queue.WorkQueue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class WorkloadWatcherTest {
+
+    private WorkQueue queue;
+
+    private WriteTracker writes;
+
+    private DeploymentWatcher watcher;
+
+    @Before
+    public void setUp() {
+        //Not started, so the tasks stay queued and can be counted
+        queue = new WorkQueue(1);
+        writes = new WriteTracker();
+        watcher = new DeploymentWatcher(null, new EnvironmentVariableOperator<Deployment>() {
+            @Override
+            public void onAdded(Deployment deployment) {
+            }
+
+            @Override
+            public void onModified(Deployment deployment) {
+            }
+
+            @Override
+            public void onDeleted(Deployment deployment) {
+            }
+        }, new ResourceCache<>(), queue, writes, new WatchScope(Collections.singletonList("myproject")));
+    }
+
+    @Test
+    public void labelOnlyChangeIsReconciled() {
+        watcher.eventReceived(Watcher.Action.ADDED, deployment("1", 1, "app", "consumer", "consumer"));
+        watcher.eventReceived(Watcher.Action.MODIFIED, deployment("2", 1, "app", "producer", "consumer"));
+
+        assertEquals(2, queue.getAdded());
+        assertEquals(0, writes.getSuppressed());
+    }
+
+    @Test
+    public void statusOnlyChangeIsIgnored() {
+        watcher.eventReceived(Watcher.Action.ADDED, deployment("1", 1, "app", "consumer", "consumer"));
+        watcher.eventReceived(Watcher.Action.MODIFIED, deployment("2", 1, "app", "consumer", "consumer"));
+
+        assertEquals(1, queue.getAdded());
+        assertEquals(1, writes.getSuppressed());
+    }
+
+    @Test
+    public void specChangeIsReconciled() {
+        watcher.eventReceived(Watcher.Action.ADDED, deployment("1", 1, "app", "consumer", "consumer"));
+        watcher.eventReceived(Watcher.Action.MODIFIED, deployment("2", 2, "app", "consumer", "consumer"));
+
+        assertEquals(2, queue.getAdded());
+    }
+
+    @Test
+    public void containerRenameIsReconciled() {
+        watcher.eventReceived(Watcher.Action.ADDED, deployment("1", 1, "app", "consumer", "consumer"));
+        watcher.eventReceived(Watcher.Action.MODIFIED, deployment("2", 1, "app", "consumer", "sidecar"));
+
+        assertEquals(2, queue.getAdded());
+    }
+
+    private static Deployment deployment(String resourceVersion, long generation, String label, String value, String container) {
+        return new DeploymentBuilder()
+                .withNewMetadata()
+                .withNamespace("myproject")
+                .withName("consumer")
+                .withResourceVersion(resourceVersion)
+                .withGeneration(generation)
+                .addToLabels(label, value)
+                .endMetadata()
+                .withNewSpec()
+                .withNewTemplate()
+                .withNewSpec()
+                .addNewContainer().withName(container).endContainer()
+                .endSpec()
+                .endTemplate()
+                .endSpec()
+                .build();
+    }
+}